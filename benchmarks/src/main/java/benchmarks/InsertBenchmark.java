@@ -0,0 +1,64 @@
+package benchmarks;
+
+import benchmarks.stub.StubDataSource;
+import library.DataConnection;
+import library.DataSource;
+import org.openjdk.jmh.annotations.*;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * insertRow cost for a given column count: SQL generation, statement lookup and binding.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InsertBenchmark {
+
+    @Param({"2", "10", "50"})
+    public int cols;
+
+    private DataSource dataSource;
+    private DataConnection conn;
+    private Map<String, Object> row;
+    private List<Map<String, Object>> rows;
+
+    @Setup
+    public void setup() throws SQLException {
+        dataSource = StubDataSource.create(1);
+        conn = dataSource.getConnection();
+        row = new LinkedHashMap<>();
+        for (int i = 0; i < cols; i++) {
+            row.put("col" + i, i % 2 == 0 ? (Object) ("value" + i) : (Object) (long) i);
+        }
+        rows = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            rows.add(row);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws SQLException {
+        conn.close();
+        dataSource.close();
+    }
+
+    @Benchmark
+    public Long insertRow() throws SQLException {
+        return conn.insertRow("bench", row);
+    }
+
+    @Benchmark
+    public List<Long> insertRows100() throws SQLException {
+        return conn.insertRows("bench", rows);
+    }
+
+}
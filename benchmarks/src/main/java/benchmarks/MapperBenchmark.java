@@ -0,0 +1,66 @@
+package benchmarks;
+
+import benchmarks.stub.StubDataSource;
+import entity.Product;
+import library.DataConnection;
+import library.DataMapper;
+import library.DataSource;
+import org.openjdk.jmh.annotations.*;
+
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Entity mapping throughput: DataMapper.map over materialized rows, and the direct
+ * ResultSet to entity path used by nativeSelect(sql, vals, Class).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MapperBenchmark {
+
+    @Param({"1000"})
+    public int rows;
+
+    private DataMapper<Product> mapper;
+    private List<Map<String, Object>> maps;
+    private DataSource dataSource;
+    private DataConnection conn;
+    private String sql;
+
+    @Setup
+    public void setup() throws SQLException {
+        mapper = new DataMapper<>(Product.class);
+        maps = new ArrayList<>(rows);
+        for (int i = 0; i < rows; i++) {
+            Map<String, Object> row = new LinkedHashMap<>();
+            row.put("id", (long) i);
+            row.put("name", "product-" + i);
+            maps.add(row);
+        }
+        dataSource = StubDataSource.create(1);
+        conn = dataSource.getConnection();
+        sql = String.format("SELECT id,name FROM products -- rows=%d cols=id,name", rows);
+    }
+
+    @TearDown
+    public void tearDown() throws SQLException {
+        conn.close();
+        dataSource.close();
+    }
+
+    @Benchmark
+    public List<Product> mapRows() throws SQLException {
+        return mapper.map(maps);
+    }
+
+    @Benchmark
+    public List<Product> selectEntities() throws SQLException {
+        return conn.nativeSelect(sql, null, Product.class);
+    }
+
+}
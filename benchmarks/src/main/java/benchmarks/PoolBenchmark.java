@@ -0,0 +1,80 @@
+package benchmarks;
+
+import benchmarks.stub.StubDataSource;
+import library.ConnectionPool;
+import library.DataConnection;
+import library.DataSource;
+import library.PooledConnection;
+import org.openjdk.jmh.annotations.*;
+
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Borrow/return round trips with the pool sized to the thread count (uncontended)
+ * and to half of it (threads queue for permits).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PoolBenchmark {
+
+    @Param({"16", "4"})
+    public int maxPoolSize;
+
+    private DataSource dataSource;
+    private ConnectionPool pool;
+
+    @Setup
+    public void setup() throws SQLException {
+        dataSource = StubDataSource.create(maxPoolSize);
+        pool = dataSource.getPool();
+    }
+
+    @TearDown
+    public void tearDown() {
+        dataSource.close();
+    }
+
+    private void borrowReturn() throws SQLException {
+        PooledConnection pooled = pool.getConnection();
+        pool.putConnection(pooled, true);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void borrowReturn1() throws SQLException {
+        borrowReturn();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void borrowReturn4() throws SQLException {
+        borrowReturn();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void borrowReturn8() throws SQLException {
+        borrowReturn();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public void borrowReturn16() throws SQLException {
+        borrowReturn();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean dataConnection4() throws SQLException {
+        // the path application code takes, including session reset on return
+        try (DataConnection conn = dataSource.getConnection()) {
+            return conn.getConnection().getAutoCommit();
+        }
+    }
+
+}
@@ -0,0 +1,60 @@
+package benchmarks;
+
+import benchmarks.stub.StubDataSource;
+import library.ColumnarResult;
+import library.DataConnection;
+import library.DataSource;
+import org.openjdk.jmh.annotations.*;
+
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * nativeSelect and columnarSelect materialization cost by result size. The stub generates
+ * rows in memory, so this is the library's per row and per column overhead.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SelectBenchmark {
+
+    @Param({"1", "100", "10000"})
+    public int rows;
+
+    @Param({"4", "32"})
+    public int cols;
+
+    private DataSource dataSource;
+    private DataConnection conn;
+    private String sql;
+
+    @Setup
+    public void setup() throws SQLException {
+        dataSource = StubDataSource.create(1);
+        conn = dataSource.getConnection();
+        sql = String.format("SELECT * FROM bench WHERE id > ? -- rows=%d cols=%d", rows, cols);
+    }
+
+    @TearDown
+    public void tearDown() throws SQLException {
+        conn.close();
+        dataSource.close();
+    }
+
+    @Benchmark
+    public List<Map<String, Object>> nativeSelect() throws SQLException {
+        return conn.nativeSelect(sql, Collections.singletonList(0));
+    }
+
+    @Benchmark
+    public ColumnarResult columnarSelect() throws SQLException {
+        return conn.columnarSelect(sql, Collections.singletonList(0));
+    }
+
+}
@@ -0,0 +1,28 @@
+package benchmarks.stub;
+
+import library.DataSource;
+
+import java.sql.SQLException;
+import java.util.Properties;
+
+public final class StubDataSource {
+
+    private StubDataSource() {
+    }
+
+    public static Properties properties(int maxPoolSize) {
+        Properties properties = new Properties();
+        properties.setProperty("datasource.driver", StubDriver.class.getName());
+        properties.setProperty("datasource.dsn", StubDriver.URL_PREFIX + "bench");
+        properties.setProperty("datasource.username", "bench");
+        properties.setProperty("datasource.password", "bench");
+        properties.setProperty("datasource.initPoolSize", String.valueOf(maxPoolSize));
+        properties.setProperty("datasource.maxPoolSize", String.valueOf(maxPoolSize));
+        return properties;
+    }
+
+    public static DataSource create(int maxPoolSize) throws SQLException {
+        return new DataSource(properties(maxPoolSize));
+    }
+
+}
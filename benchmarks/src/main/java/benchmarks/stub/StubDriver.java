@@ -0,0 +1,60 @@
+package benchmarks.stub;
+
+import java.sql.*;
+import java.util.Properties;
+import java.util.logging.Logger;
+
+/**
+ * JDBC driver for "jdbc:stub:" URLs that never touches the network, so the benchmarks
+ * measure this library rather than a database. Queries return generated rows whose
+ * shape is taken from a hint anywhere in the SQL, e.g. "SELECT * FROM t -- rows=100 cols=8",
+ * or "cols=id,name" for named columns. The first column is a Long, the rest are Strings.
+ */
+public class StubDriver implements Driver {
+
+    public static final String URL_PREFIX = "jdbc:stub:";
+
+    static {
+        try {
+            DriverManager.registerDriver(new StubDriver());
+        } catch (SQLException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    @Override
+    public Connection connect(String url, Properties info) throws SQLException {
+        return acceptsURL(url) ? StubJdbc.connection() : null;
+    }
+
+    @Override
+    public boolean acceptsURL(String url) {
+        return url != null && url.startsWith(URL_PREFIX);
+    }
+
+    @Override
+    public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) {
+        return new DriverPropertyInfo[0];
+    }
+
+    @Override
+    public int getMajorVersion() {
+        return 1;
+    }
+
+    @Override
+    public int getMinorVersion() {
+        return 0;
+    }
+
+    @Override
+    public boolean jdbcCompliant() {
+        return false;
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+}
@@ -0,0 +1,281 @@
+package benchmarks.stub;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.*;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Proxy based Connection, PreparedStatement and ResultSet for StubDriver. Only the calls
+ * the library makes do anything; everything else returns a default value.
+ */
+final class StubJdbc {
+
+    private static final Pattern ROWS = Pattern.compile("rows=(\\d+)");
+    private static final Pattern COLS = Pattern.compile("cols=([\\w,]+)");
+    private static final Map<String, Shape> SHAPES = new ConcurrentHashMap<>();
+
+    private StubJdbc() {
+    }
+
+    static Connection connection() {
+        return proxy(Connection.class, new ConnectionHandler());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(StubJdbc.class.getClassLoader(), new Class<?>[]{type}, handler);
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (type == boolean.class) {
+            return false;
+        } else if (type == int.class) {
+            return 0;
+        } else if (type == long.class) {
+            return 0L;
+        } else if (type == double.class) {
+            return 0d;
+        } else if (type == float.class) {
+            return 0f;
+        } else if (type == short.class) {
+            return (short) 0;
+        } else if (type == byte.class) {
+            return (byte) 0;
+        }
+        return null;
+    }
+
+    private static Object objectMethod(Object proxy, Method method, Object[] args) {
+        switch (method.getName()) {
+            case "equals":
+                return proxy == args[0];
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            default:
+                return proxy.getClass().getInterfaces()[0].getSimpleName() + "@stub";
+        }
+    }
+
+    //---------------------------------------------------
+
+    /**
+     * Result set layout parsed from the SQL hint, once per distinct SQL string.
+     */
+    private static final class Shape {
+
+        private final int rows;
+        private final String[] columns;
+        private final String[] text;
+
+        Shape(String sql) {
+            Matcher rowMatcher = ROWS.matcher(sql);
+            rows = rowMatcher.find() ? Integer.parseInt(rowMatcher.group(1)) : 1;
+            Matcher colMatcher = COLS.matcher(sql);
+            String cols = colMatcher.find() ? colMatcher.group(1) : "1";
+            if (cols.matches("\\d+")) {
+                columns = new String[Integer.parseInt(cols)];
+                for (int i = 0; i < columns.length; i++) {
+                    columns[i] = "c" + (i + 1);
+                }
+            } else {
+                columns = cols.split(",");
+            }
+            text = new String[columns.length];
+            for (int i = 0; i < columns.length; i++) {
+                text[i] = columns[i] + "-value";
+            }
+        }
+
+        static Shape of(String sql) {
+            return SHAPES.computeIfAbsent(sql, Shape::new);
+        }
+
+        Object value(int row, int column) {
+            return column == 1 ? Long.valueOf(row) : text[column - 1];
+        }
+    }
+
+    private static final class ConnectionHandler implements InvocationHandler {
+
+        private boolean closed;
+        private boolean autoCommit = true;
+        private boolean readOnly;
+        private int isolation = Connection.TRANSACTION_REPEATABLE_READ;
+        private String catalog = "stub";
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            if (method.getDeclaringClass() == Object.class) {
+                return objectMethod(proxy, method, args);
+            }
+            switch (method.getName()) {
+                case "prepareStatement":
+                    return proxy(PreparedStatement.class, new StatementHandler((Connection) proxy, (String) args[0]));
+                case "close":
+                    closed = true;
+                    return null;
+                case "isClosed":
+                    return closed;
+                case "isValid":
+                    return !closed;
+                case "getAutoCommit":
+                    return autoCommit;
+                case "setAutoCommit":
+                    autoCommit = (Boolean) args[0];
+                    return null;
+                case "isReadOnly":
+                    return readOnly;
+                case "setReadOnly":
+                    readOnly = (Boolean) args[0];
+                    return null;
+                case "getTransactionIsolation":
+                    return isolation;
+                case "setTransactionIsolation":
+                    isolation = (Integer) args[0];
+                    return null;
+                case "getCatalog":
+                    return catalog;
+                case "setCatalog":
+                    catalog = (String) args[0];
+                    return null;
+                default:
+                    return defaultValue(method.getReturnType());
+            }
+        }
+    }
+
+    private static final class StatementHandler implements InvocationHandler {
+
+        private final Connection conn;
+        private final String sql;
+        private int batched;
+        private boolean closed;
+
+        StatementHandler(Connection conn, String sql) {
+            this.conn = conn;
+            this.sql = sql;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            if (method.getDeclaringClass() == Object.class) {
+                return objectMethod(proxy, method, args);
+            }
+            switch (method.getName()) {
+                case "executeQuery":
+                    return proxy(ResultSet.class, new ResultSetHandler(Shape.of(sql)));
+                case "execute":
+                    return false; // an update count, as for INSERT/UPDATE/DELETE
+                case "executeUpdate":
+                case "getUpdateCount":
+                    return 1;
+                case "executeLargeUpdate":
+                    return 1L;
+                case "getGeneratedKeys":
+                    return proxy(ResultSet.class, new ResultSetHandler(Shape.of("rows=1 cols=1")));
+                case "addBatch":
+                    batched++;
+                    return null;
+                case "executeBatch":
+                    int[] counts = new int[batched];
+                    java.util.Arrays.fill(counts, 1);
+                    batched = 0;
+                    return counts;
+                case "clearBatch":
+                    batched = 0;
+                    return null;
+                case "getConnection":
+                    return conn;
+                case "close":
+                    closed = true;
+                    return null;
+                case "isClosed":
+                    return closed;
+                default:
+                    return defaultValue(method.getReturnType());
+            }
+        }
+    }
+
+    private static final class ResultSetHandler implements InvocationHandler {
+
+        private final Shape shape;
+        private int row;
+        private boolean closed;
+
+        ResultSetHandler(Shape shape) {
+            this.shape = shape;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            if (method.getDeclaringClass() == Object.class) {
+                return objectMethod(proxy, method, args);
+            }
+            switch (method.getName()) {
+                case "next":
+                    return ++row <= shape.rows;
+                case "getMetaData":
+                    return proxy(ResultSetMetaData.class, (p, m, a) -> {
+                        if (m.getDeclaringClass() == Object.class) {
+                            return objectMethod(p, m, a);
+                        }
+                        switch (m.getName()) {
+                            case "getColumnCount":
+                                return shape.columns.length;
+                            case "getColumnName":
+                            case "getColumnLabel":
+                                return shape.columns[(Integer) a[0] - 1];
+                            case "getColumnType":
+                                return (Integer) a[0] == 1 ? Types.BIGINT : Types.VARCHAR;
+                            case "isSigned":
+                                return true;
+                            default:
+                                return defaultValue(m.getReturnType());
+                        }
+                    });
+                case "getObject":
+                    return value(args[0]);
+                case "getString":
+                    Object text = value(args[0]);
+                    return text == null ? null : text.toString();
+                case "getLong":
+                    Object number = value(args[0]);
+                    return number instanceof Long ? (Long) number : 0L;
+                case "getInt":
+                    Object integer = value(args[0]);
+                    return integer instanceof Long ? ((Long) integer).intValue() : 0;
+                case "wasNull":
+                    return false;
+                case "close":
+                    closed = true;
+                    return null;
+                case "isClosed":
+                    return closed;
+                default:
+                    return defaultValue(method.getReturnType());
+            }
+        }
+
+        private Object value(Object column) {
+            int index;
+            if (column instanceof Integer) {
+                index = (Integer) column;
+            } else {
+                index = 0;
+                for (int i = 0; i < shape.columns.length; i++) {
+                    if (shape.columns[i].equalsIgnoreCase((String) column)) {
+                        index = i + 1;
+                    }
+                }
+            }
+            return index < 1 ? null : shape.value(row, index);
+        }
+    }
+
+}
@@ -1,6 +1,7 @@
 import entity.Product;
 import javafx.util.Pair;
 import library.DataConnection;
+import library.DataCopy;
 import library.DataMapper;
 import library.DataSource;
 import library.Loaders;
@@ -46,6 +47,9 @@ public class Main {
                 DataMapper<Product> dataMapper = new DataMapper<>(Product.class);
                 List<Product> products = dataMapper.map(rows);
 
+                // or map straight from the result set
+                products = conn.nativeSelect("SELECT * FROM products", null, Product.class);
+
                 // output products
                 for (Product product : products) {
                     System.out.println(product);
@@ -81,6 +85,13 @@ public class Main {
             } catch (SQLException e) {
                 e.printStackTrace();
             }
+
+            // copy a whole table, streamed and written in batches
+            try {
+                new DataCopy(ds2, "SELECT * FROM srcTable", null, ds1, "destTable").run();
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
         }
     }
 
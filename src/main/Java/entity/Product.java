@@ -2,10 +2,12 @@ package entity;
 
 import annotations.Column;
 import annotations.Entity;
+import annotations.Id;
 
 @Entity(table = "products")
 public class Product {
 
+    @Id
     @Column(name = "id")
     private Long id;
 
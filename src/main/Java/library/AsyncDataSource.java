@@ -0,0 +1,127 @@
+package library;
+
+import javafx.util.Pair;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * CompletableFuture facade over a DataSource. Each call borrows a connection on the
+ * executor, runs, and returns it; futures fail with the SQLException as their cause.
+ */
+public class AsyncDataSource implements AutoCloseable {
+
+    private DataSource dataSource;
+    private ExecutorService executor;
+    private boolean ownsExecutor;
+
+    public AsyncDataSource(DataSource dataSource, ExecutorService executor) {
+        this.dataSource = dataSource;
+        this.executor = executor;
+    }
+
+    public AsyncDataSource(DataSource dataSource) {
+        // one thread per pooled connection; the bounded queue pushes back on callers when full
+        this(dataSource, boundedExecutor(dataSource.getPool().getMaxPoolSize(), dataSource.getPool().getMaxPoolSize() * 100));
+        this.ownsExecutor = true;
+    }
+
+    /**
+     * One virtual thread per task (Java 21+). The connection pool's borrow timeout is then
+     * the only concurrency limit, and waiting tasks don't hold platform threads.
+     */
+    public static AsyncDataSource virtualThreads(DataSource dataSource) {
+        try {
+            ExecutorService executor = (ExecutorService) Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            AsyncDataSource async = new AsyncDataSource(dataSource, executor);
+            async.ownsExecutor = true;
+            return async;
+        } catch (ReflectiveOperationException e) {
+            throw new UnsupportedOperationException("Virtual threads need Java 21 or later", e);
+        }
+    }
+
+    public static ExecutorService boundedExecutor(int threads, int queueSize) {
+        AtomicInteger count = new AtomicInteger();
+        return new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueSize),
+                r -> {
+                    Thread thread = new Thread(r, "AsyncDataSource-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    //---------------------------------------------------
+
+    public <R> CompletableFuture<R> supplyAsync(SqlFunction<DataConnection, R> work) {
+        try {
+            return CompletableFuture.supplyAsync(() -> {
+                try (DataConnection conn = dataSource.getConnection()) {
+                    return work.apply(conn);
+                } catch (SQLException e) {
+                    throw new CompletionException(e);
+                }
+            }, executor);
+        } catch (RejectedExecutionException e) {
+            CompletableFuture<R> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+    }
+
+    public CompletableFuture<List<Map<String, Object>>> selectAsync(String sql, List<Object> vals) {
+        return supplyAsync(conn -> conn.nativeSelect(sql, vals));
+    }
+
+    public <T> CompletableFuture<List<T>> selectAsync(String sql, List<Object> vals, Class<T> clazz) {
+        return supplyAsync(conn -> conn.nativeSelect(sql, vals, clazz));
+    }
+
+    public CompletableFuture<Object> scalarAsync(String sql, List<Object> vals) {
+        return supplyAsync(conn -> conn.scalar(sql, vals));
+    }
+
+    public CompletableFuture<Integer> updateAsync(String sql, List<Object> vals) {
+        return supplyAsync(conn -> conn.nativeUpdate(sql, vals));
+    }
+
+    public CompletableFuture<Map<String, Object>> selectRowAsync(String tableName, Pair<String, Object> id) {
+        return supplyAsync(conn -> conn.selectRow(tableName, id));
+    }
+
+    public CompletableFuture<Long> insertRowAsync(String tableName, Map<String, Object> vals) {
+        return supplyAsync(conn -> conn.insertRow(tableName, vals));
+    }
+
+    public CompletableFuture<Boolean> updateRowAsync(String tableName, Pair<String, Object> id, Map<String, Object> vals) {
+        return supplyAsync(conn -> conn.updateRow(tableName, id, vals));
+    }
+
+    public CompletableFuture<Boolean> deleteRowAsync(String tableName, Pair<String, Object> id) {
+        return supplyAsync(conn -> conn.deleteRow(tableName, id));
+    }
+
+    public CompletableFuture<List<Long>> insertRowsAsync(String tableName, List<Map<String, Object>> rows) {
+        return supplyAsync(conn -> conn.insertRows(tableName, rows));
+    }
+
+    //---------------------------------------------------
+
+    public ExecutorService getExecutor() {
+        return executor;
+    }
+
+    @Override
+    public void close() {
+        if (ownsExecutor) {
+            executor.shutdown();
+        }
+    }
+
+}
@@ -0,0 +1,347 @@
+package library;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.*;
+
+/**
+ * A query result held column by column. Column types are read from the metadata once:
+ * integers and floating point values go into primitive arrays with a null bitmap, strings
+ * are dictionary encoded, anything else is kept as objects.
+ */
+public class ColumnarResult {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final String[] names;
+    private final Map<String, Integer> index;
+    private final Column[] columns;
+    private int rows;
+
+    private ColumnarResult(String[] names, Column[] columns) {
+        this.names = names;
+        this.columns = columns;
+        this.index = new HashMap<>(names.length * 2);
+        for (int i = 0; i < names.length; i++) {
+            index.putIfAbsent(names[i], i);
+        }
+    }
+
+    public static ColumnarResult read(ResultSet rs) throws SQLException {
+        ResultSetMetaData meta = rs.getMetaData();
+        int count = meta.getColumnCount();
+        String[] names = new String[count];
+        Column[] columns = new Column[count];
+        for (int i = 0; i < count; i++) {
+            names[i] = meta.getColumnName(i + 1);
+            columns[i] = column(meta.getColumnType(i + 1), meta.isSigned(i + 1));
+        }
+        ColumnarResult result = new ColumnarResult(names, columns);
+        int capacity = INITIAL_CAPACITY;
+        for (Column column : columns) {
+            column.grow(capacity);
+        }
+        while (rs.next()) {
+            if (result.rows == capacity) {
+                capacity *= 2;
+                for (Column column : columns) {
+                    column.grow(capacity);
+                }
+            }
+            for (int i = 0; i < count; i++) {
+                columns[i].read(rs, i + 1, result.rows);
+            }
+            result.rows++;
+        }
+        for (Column column : columns) {
+            column.finish(result.rows);
+        }
+        return result;
+    }
+
+    private static Column column(int sqlType, boolean signed) {
+        switch (sqlType) {
+            case Types.TINYINT:
+            case Types.SMALLINT:
+                return new IntColumn();
+            case Types.INTEGER:
+                return signed ? new IntColumn() : new LongColumn(); // unsigned int overflows an int
+            case Types.BIGINT:
+                return signed ? new LongColumn() : new ObjectColumn();
+            case Types.REAL:
+            case Types.FLOAT:
+            case Types.DOUBLE:
+                return new DoubleColumn();
+            case Types.CHAR:
+            case Types.VARCHAR:
+            case Types.LONGVARCHAR:
+            case Types.NCHAR:
+            case Types.NVARCHAR:
+            case Types.LONGNVARCHAR:
+                return new StringColumn();
+            default:
+                return new ObjectColumn(); // DECIMAL keeps its precision, dates their type
+        }
+    }
+
+    //---------------------------------------------------
+
+    public int size() {
+        return rows;
+    }
+
+    public int columnCount() {
+        return columns.length;
+    }
+
+    public String name(int column) {
+        return names[column];
+    }
+
+    public int indexOf(String name) {
+        Integer column = index.get(name);
+        return column == null ? -1 : column;
+    }
+
+    public Column column(int column) {
+        return columns[column];
+    }
+
+    public Column column(String name) {
+        int column = indexOf(name);
+        if (column < 0) {
+            throw new IllegalArgumentException("No column " + name);
+        }
+        return columns[column];
+    }
+
+    public LongColumn longs(String name) {
+        return typed(name, LongColumn.class);
+    }
+
+    public IntColumn ints(String name) {
+        return typed(name, IntColumn.class);
+    }
+
+    public DoubleColumn doubles(String name) {
+        return typed(name, DoubleColumn.class);
+    }
+
+    public StringColumn strings(String name) {
+        return typed(name, StringColumn.class);
+    }
+
+    public Object get(int row, String name) {
+        return column(name).get(row);
+    }
+
+    private <C extends Column> C typed(String name, Class<C> type) {
+        Column column = column(name);
+        if (!type.isInstance(column)) {
+            throw new IllegalArgumentException(String.format("Column %s is a %s, not a %s",
+                    name, column.getClass().getSimpleName(), type.getSimpleName()));
+        }
+        return type.cast(column);
+    }
+
+    //---------------------------------------------------
+
+    public abstract static class Column {
+
+        final BitSet nulls = new BitSet();
+
+        public boolean isNull(int row) {
+            return nulls.get(row);
+        }
+
+        public abstract Object get(int row);
+
+        abstract void read(ResultSet rs, int column, int row) throws SQLException;
+
+        abstract void grow(int capacity);
+
+        void finish(int rows) {
+            grow(rows); // trim, so value arrays hold exactly one entry per row
+        }
+    }
+
+    public static class LongColumn extends Column {
+
+        private long[] values = new long[0];
+
+        public long getLong(int row) {
+            return values[row];
+        }
+
+        public long[] values() {
+            return values; // 0 where null
+        }
+
+        @Override
+        public Object get(int row) {
+            return isNull(row) ? null : values[row];
+        }
+
+        @Override
+        void read(ResultSet rs, int column, int row) throws SQLException {
+            values[row] = rs.getLong(column);
+            if (rs.wasNull()) {
+                nulls.set(row);
+            }
+        }
+
+        @Override
+        void grow(int capacity) {
+            values = Arrays.copyOf(values, capacity);
+        }
+    }
+
+    public static class IntColumn extends Column {
+
+        private int[] values = new int[0];
+
+        public int getInt(int row) {
+            return values[row];
+        }
+
+        public int[] values() {
+            return values; // 0 where null
+        }
+
+        @Override
+        public Object get(int row) {
+            return isNull(row) ? null : values[row];
+        }
+
+        @Override
+        void read(ResultSet rs, int column, int row) throws SQLException {
+            values[row] = rs.getInt(column);
+            if (rs.wasNull()) {
+                nulls.set(row);
+            }
+        }
+
+        @Override
+        void grow(int capacity) {
+            values = Arrays.copyOf(values, capacity);
+        }
+    }
+
+    public static class DoubleColumn extends Column {
+
+        private double[] values = new double[0];
+
+        public double getDouble(int row) {
+            return values[row];
+        }
+
+        public double[] values() {
+            return values; // 0 where null
+        }
+
+        @Override
+        public Object get(int row) {
+            return isNull(row) ? null : values[row];
+        }
+
+        @Override
+        void read(ResultSet rs, int column, int row) throws SQLException {
+            values[row] = rs.getDouble(column);
+            if (rs.wasNull()) {
+                nulls.set(row);
+            }
+        }
+
+        @Override
+        void grow(int capacity) {
+            values = Arrays.copyOf(values, capacity);
+        }
+    }
+
+    /**
+     * Each row holds a code into a dictionary of the distinct values, so repeated
+     * strings are stored once. Code -1 is null.
+     */
+    public static class StringColumn extends Column {
+
+        private int[] codes = new int[0];
+        private final List<String> dictionary = new ArrayList<>();
+        private Map<String, Integer> lookup = new HashMap<>(); // only needed while reading
+
+        public int getCode(int row) {
+            return codes[row];
+        }
+
+        public int[] codes() {
+            return codes;
+        }
+
+        public List<String> dictionary() {
+            return Collections.unmodifiableList(dictionary);
+        }
+
+        public String getString(int row) {
+            int code = codes[row];
+            return code < 0 ? null : dictionary.get(code);
+        }
+
+        @Override
+        public Object get(int row) {
+            return getString(row);
+        }
+
+        @Override
+        void read(ResultSet rs, int column, int row) throws SQLException {
+            String value = rs.getString(column);
+            if (value == null) {
+                codes[row] = -1;
+                nulls.set(row);
+                return;
+            }
+            Integer code = lookup.get(value);
+            if (code == null) {
+                code = dictionary.size();
+                dictionary.add(value);
+                lookup.put(value, code);
+            }
+            codes[row] = code;
+        }
+
+        @Override
+        void grow(int capacity) {
+            codes = Arrays.copyOf(codes, capacity);
+        }
+
+        @Override
+        void finish(int rows) {
+            super.finish(rows);
+            lookup = null;
+        }
+    }
+
+    public static class ObjectColumn extends Column {
+
+        private Object[] values = new Object[0];
+
+        @Override
+        public Object get(int row) {
+            return values[row];
+        }
+
+        @Override
+        void read(ResultSet rs, int column, int row) throws SQLException {
+            values[row] = rs.getObject(column);
+            if (values[row] == null) {
+                nulls.set(row);
+            }
+        }
+
+        @Override
+        void grow(int capacity) {
+            values = Arrays.copyOf(values, capacity);
+        }
+    }
+
+}
@@ -1,23 +1,129 @@
 package library;
 
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
 import java.sql.Connection;
+import java.sql.Driver;
 import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
-public class ConnectionPool {
+public class ConnectionPool implements ConnectionPoolMXBean {
 
-    private LinkedList<Connection> pool;
+    private static final Logger LOG = Logger.getLogger(ConnectionPool.class.getName());
+    private static final AtomicInteger POOL_IDS = new AtomicInteger();
+    private static final int SHRINK_AFTER = 3; // quiet sizing periods in a row before shrinking
+    private static final long MAX_HANDOFF_WAIT = TimeUnit.SECONDS.toNanos(1); // then rescan anyway
+
+    private CopyOnWriteArrayList<PooledConnection> pool; // shared bag, scanned lock-free
+    private ThreadLocal<PooledConnection> lastUsed = new ThreadLocal<>(); // per-thread fast path
+    private AtomicInteger totalConnections = new AtomicInteger();
+    private Semaphore permits; // bounds the number of borrowed connections
+    // borrowers holding a permit that found no connection park here until one is returned
+    private final ReentrantLock handoffLock = new ReentrantLock();
+    private final Condition handedOff = handoffLock.newCondition();
+    private final AtomicInteger waiters = new AtomicInteger();
+    private volatile long handoffs; // written under handoffLock
     private Properties properties;
     private int connTimeout = 5;
     private int initPoolSize = 5;
+    private int maxPoolSize = 10;
+    private int borrowTimeout = 30;
+    private int minIdle = 5;
+    private long validationIdleTime = 1000; // milliseconds
+    private int keepaliveTime = 30;
+    private int idleTimeout = 600;
+    private int maxLifetime = 1800;
+    private int housekeepingPeriod = 30;
+    private int statementCacheSize = 64;
+    private int fetchSize = 1000;
+    private int batchSize = 500;
+    private long batchMaxBytes = 1024 * 1024; // stay well below max_allowed_packet
+    private int initThreads = 8;
+    private boolean lazyInit = false;
+    private boolean adaptiveSizing = false;
+    private int sizingPeriod = 5;
+    private long growWaitMillis = 5; // mean borrow wait over a sizing period that triggers growth
+    private int leakDetectionThreshold = 0; // seconds a connection may be held, 0 disables
+    private double leakSampleRate = 0.01; // fraction of borrows that record a stack trace
+    private boolean leakReclaim = false;
+    private ScheduledExecutorService housekeeper;
+    private volatile boolean closed;
+
+    // resolved once, reused for every new connection
+    private Driver driver;
+    private String dsn;
+    private Properties connectProperties;
+
+    private String name;
+    private QueryMetrics queryMetrics;
+    private Histogram borrowWait = new Histogram();
+    private LongAdder borrowTimeouts = new LongAdder();
+    private LongAdder connectionsCreated = new LongAdder();
+    private LongAdder connectionsDestroyed = new LongAdder();
+    private List<ObjectName> mbeans = new LinkedList<>();
+
+    // adaptive sizing, sampled per sizing period
+    private AtomicInteger peakActive = new AtomicInteger();
+    private LongAdder periodBorrows = new LongAdder();
+    private LongAdder periodWaitNanos = new LongAdder();
+    private int quietPeriods;
+    private volatile int targetPoolSize;
+    private LongAdder poolGrowths = new LongAdder();
+    private LongAdder poolShrinks = new LongAdder();
+    private volatile String lastSizingDecision = "none";
+
+    private LongAdder leaksDetected = new LongAdder();
+    private LongAdder leaksReclaimed = new LongAdder();
 
     public ConnectionPool(Properties properties) throws SQLException {
-        this.pool = new LinkedList<>();
+        this.pool = new CopyOnWriteArrayList<>();
         this.properties = properties;
         assignProperties();
-        initPool();
+        this.permits = new Semaphore(maxPoolSize, true);
+        resolveDriver();
+        if (lazyInit) {
+            // borrowers open connections on demand until the background fill catches up
+            daemonThreads("ConnectionPool-warmup").newThread(() -> {
+                try {
+                    initPool();
+                } catch (SQLException e) {
+                    LOG.log(Level.WARNING, "Background warm-up of " + name + " failed", e);
+                }
+            }).start();
+        } else {
+            try {
+                initPool();
+            } catch (SQLException e) {
+                close();
+                throw e;
+            }
+        }
+        startHousekeeper();
+        if (Boolean.parseBoolean(properties.getProperty("datasource.jmx", "false"))) {
+            registerMBeans();
+        }
     }
 
     public void assignProperties() {
@@ -27,58 +133,757 @@ public class ConnectionPool {
         if (properties.containsKey("datasource.initPoolSize")) {
             initPoolSize = Integer.parseInt(properties.getProperty("datasource.initPoolSize"));
         }
+        if (properties.containsKey("datasource.maxPoolSize")) {
+            maxPoolSize = Integer.parseInt(properties.getProperty("datasource.maxPoolSize"));
+        }
+        if (properties.containsKey("datasource.borrowTimeout")) {
+            borrowTimeout = Integer.parseInt(properties.getProperty("datasource.borrowTimeout"));
+        }
+        minIdle = initPoolSize;
+        if (properties.containsKey("datasource.minIdle")) {
+            minIdle = Integer.parseInt(properties.getProperty("datasource.minIdle"));
+        }
+        if (properties.containsKey("datasource.validationIdleTime")) {
+            validationIdleTime = Long.parseLong(properties.getProperty("datasource.validationIdleTime"));
+        }
+        if (properties.containsKey("datasource.keepaliveTime")) {
+            keepaliveTime = Integer.parseInt(properties.getProperty("datasource.keepaliveTime"));
+        }
+        if (properties.containsKey("datasource.idleTimeout")) {
+            idleTimeout = Integer.parseInt(properties.getProperty("datasource.idleTimeout"));
+        }
+        if (properties.containsKey("datasource.maxLifetime")) {
+            maxLifetime = Integer.parseInt(properties.getProperty("datasource.maxLifetime"));
+        }
+        if (properties.containsKey("datasource.housekeepingPeriod")) {
+            housekeepingPeriod = Integer.parseInt(properties.getProperty("datasource.housekeepingPeriod"));
+        }
+        if (properties.containsKey("datasource.statementCacheSize")) {
+            statementCacheSize = Integer.parseInt(properties.getProperty("datasource.statementCacheSize"));
+        }
+        if (String.valueOf(properties.getProperty("datasource.dsn")).startsWith("jdbc:mysql")) {
+            fetchSize = DataConnection.FETCH_ROW_BY_ROW; // the driver otherwise buffers the whole result
+        }
+        if (properties.containsKey("datasource.fetchSize")) {
+            fetchSize = Integer.parseInt(properties.getProperty("datasource.fetchSize"));
+        }
+        if (properties.containsKey("datasource.batchSize")) {
+            batchSize = Integer.parseInt(properties.getProperty("datasource.batchSize"));
+        }
+        if (properties.containsKey("datasource.batchMaxBytes")) {
+            batchMaxBytes = Long.parseLong(properties.getProperty("datasource.batchMaxBytes"));
+        }
+        if (properties.containsKey("datasource.initThreads")) {
+            initThreads = Integer.parseInt(properties.getProperty("datasource.initThreads"));
+        }
+        if (properties.containsKey("datasource.lazyInit")) {
+            lazyInit = Boolean.parseBoolean(properties.getProperty("datasource.lazyInit"));
+        }
+        if (properties.containsKey("datasource.adaptiveSizing")) {
+            adaptiveSizing = Boolean.parseBoolean(properties.getProperty("datasource.adaptiveSizing"));
+        }
+        if (properties.containsKey("datasource.sizingPeriod")) {
+            sizingPeriod = Integer.parseInt(properties.getProperty("datasource.sizingPeriod"));
+        }
+        if (properties.containsKey("datasource.growWaitMillis")) {
+            growWaitMillis = Long.parseLong(properties.getProperty("datasource.growWaitMillis"));
+        }
+        if (properties.containsKey("datasource.leakDetectionThreshold")) {
+            leakDetectionThreshold = Integer.parseInt(properties.getProperty("datasource.leakDetectionThreshold"));
+        }
+        if (properties.containsKey("datasource.leakSampleRate")) {
+            leakSampleRate = Double.parseDouble(properties.getProperty("datasource.leakSampleRate"));
+        }
+        if (properties.containsKey("datasource.leakReclaim")) {
+            leakReclaim = Boolean.parseBoolean(properties.getProperty("datasource.leakReclaim"));
+        }
+        name = properties.getProperty("datasource.name", "pool") + "-" + POOL_IDS.incrementAndGet();
+        queryMetrics = new QueryMetrics(Long.parseLong(properties.getProperty("datasource.slowQueryThreshold", "0")));
+        initPoolSize = Math.min(initPoolSize, maxPoolSize);
+        minIdle = Math.min(minIdle, maxPoolSize);
+        targetPoolSize = Math.min(maxPoolSize, Math.max(1, Math.max(initPoolSize, minIdle)));
     }
 
     public void initPool() throws SQLException {
-        for (int i = 0; i < initPoolSize; i++) {
-            putConnection(newConnection(), true);
+        openConnections(initPoolSize - totalConnections.get());
+    }
+
+    private void openConnections(int count) throws SQLException {
+        // connects in parallel so startup costs one connect time rather than count of them
+        if (count <= 0) {
+            return;
+        }
+        if (count == 1 || initThreads <= 1) {
+            for (int i = 0; i < count; i++) {
+                addIdleConnection();
+            }
+            return;
+        }
+        ExecutorService opener = Executors.newFixedThreadPool(Math.min(count, initThreads), daemonThreads("ConnectionPool-opener"));
+        List<Future<?>> opened = new ArrayList<>(count);
+        try {
+            for (int i = 0; i < count; i++) {
+                opened.add(opener.submit(() -> {
+                    addIdleConnection();
+                    return null;
+                }));
+            }
+        } finally {
+            opener.shutdown();
+        }
+        SQLException failure = null;
+        for (Future<?> future : opened) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted opening connections", e);
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = e.getCause() instanceof SQLException ? (SQLException) e.getCause() : new SQLException(e.getCause());
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
         }
     }
 
-    public LinkedList<Connection> getConnections() {
-        return pool;
+    private void addIdleConnection() throws SQLException {
+        if (closed) {
+            return;
+        }
+        if (totalConnections.incrementAndGet() > maxPoolSize) {
+            totalConnections.decrementAndGet();
+            return; // borrowers filled the pool meanwhile
+        }
+        PooledConnection pooled;
+        try {
+            pooled = new PooledConnection(newConnection(), statementCacheSize);
+        } catch (SQLException | RuntimeException e) {
+            totalConnections.decrementAndGet();
+            throw e;
+        }
+        connectionsCreated.increment();
+        pooled.release();
+        pool.add(pooled);
+        if (closed && pooled.reserve()) {
+            removeConnection(pooled); // lost a race with close()
+        }
+        signalHandoff();
+    }
+
+    public List<Connection> getConnections() {
+        List<Connection> conns = new LinkedList<>();
+        for (PooledConnection pooled : pool) {
+            conns.add(pooled.getConnection());
+        }
+        return conns;
     }
 
     public int poolSize() {
-        return this.pool.size();
+        // number of idle connections
+        int idle = 0;
+        for (PooledConnection pooled : pool) {
+            if (pooled.isIdle()) {
+                idle++;
+            }
+        }
+        return idle;
     }
 
-    private Connection newConnection() throws SQLException {
-        try {
-            Class.forName(properties.getProperty("datasource.driver"));
+    public int totalSize() {
+        return totalConnections.get();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public QueryMetrics getQueryMetrics() {
+        return queryMetrics;
+    }
+
+    public long statementCacheHits() {
+        long hits = 0;
+        for (PooledConnection pooled : pool) {
+            hits += pooled.getStatementCache().getHits();
+        }
+        return hits;
+    }
+
+    public long statementCacheMisses() {
+        long misses = 0;
+        for (PooledConnection pooled : pool) {
+            misses += pooled.getStatementCache().getMisses();
+        }
+        return misses;
+    }
+
+    public int getFetchSize() {
+        return fetchSize;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public long getBatchMaxBytes() {
+        return batchMaxBytes;
+    }
+
+    //---------------------------------------------------
+    // metrics, also exposed over JMX when datasource.jmx=true
+
+    @Override
+    public int getMaxPoolSize() {
+        return maxPoolSize;
+    }
+
+    @Override
+    public int getTotalConnections() {
+        return totalSize();
+    }
+
+    @Override
+    public int getIdleConnections() {
+        return poolSize();
+    }
+
+    @Override
+    public int getActiveConnections() {
+        return maxPoolSize - permits.availablePermits();
+    }
+
+    @Override
+    public int getThreadsAwaitingConnection() {
+        return permits.getQueueLength();
+    }
+
+    @Override
+    public long getBorrowCount() {
+        return borrowWait.getCount();
+    }
+
+    @Override
+    public long getBorrowTimeouts() {
+        return borrowTimeouts.sum();
+    }
+
+    @Override
+    public double getBorrowWaitMeanMillis() {
+        return borrowWait.getMeanMillis();
+    }
+
+    @Override
+    public double getBorrowWaitP99Millis() {
+        return borrowWait.percentileMillis(99);
+    }
+
+    @Override
+    public double getBorrowWaitMaxMillis() {
+        return borrowWait.getMaxMillis();
+    }
+
+    @Override
+    public long getConnectionsCreated() {
+        return connectionsCreated.sum();
+    }
+
+    @Override
+    public long getConnectionsDestroyed() {
+        return connectionsDestroyed.sum();
+    }
+
+    @Override
+    public int getTargetPoolSize() {
+        return adaptiveSizing ? targetPoolSize : maxPoolSize;
+    }
+
+    @Override
+    public long getPoolGrowths() {
+        return poolGrowths.sum();
+    }
+
+    @Override
+    public long getPoolShrinks() {
+        return poolShrinks.sum();
+    }
+
+    @Override
+    public String getLastSizingDecision() {
+        return lastSizingDecision;
+    }
+
+    @Override
+    public long getLeaksDetected() {
+        return leaksDetected.sum();
+    }
+
+    @Override
+    public long getLeaksReclaimed() {
+        return leaksReclaimed.sum();
+    }
 
-            Properties props = new Properties();
-            props.setProperty("connectTimeout", String.valueOf(connTimeout * 1000)); // milliseconds
-            props.setProperty("user", properties.getProperty("datasource.username"));
-            props.setProperty("password", properties.getProperty("datasource.password"));
+    @Override
+    public long getStatementCacheHits() {
+        return statementCacheHits();
+    }
+
+    @Override
+    public long getStatementCacheMisses() {
+        return statementCacheMisses();
+    }
+
+    private void registerMBeans() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            ObjectName poolName = new ObjectName("library:type=ConnectionPool,name=" + ObjectName.quote(name));
+            ObjectName queryName = new ObjectName("library:type=QueryMetrics,name=" + ObjectName.quote(name));
+            server.registerMBean(this, poolName);
+            mbeans.add(poolName);
+            server.registerMBean(queryMetrics, queryName);
+            mbeans.add(queryName);
+        } catch (JMException e) {
+            LOG.log(Level.WARNING, "Could not register MBeans for " + name, e);
+        }
+    }
 
-            //jdbc:mysql
-            //jdbc:mysql:loadbalance
-            //jdbc:mysql:replication
-            return DriverManager.getConnection(properties.getProperty("datasource.dsn"), props);
+    private void unregisterMBeans() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (ObjectName mbean : mbeans) {
+            try {
+                server.unregisterMBean(mbean);
+            } catch (JMException e) {
+                // already gone
+            }
+        }
+        mbeans.clear();
+    }
 
+    private void resolveDriver() throws SQLException {
+        try {
+            Class.forName(properties.getProperty("datasource.driver"));
         } catch (ClassNotFoundException e) {
             throw new SQLException(e.getMessage());
         }
+
+        connectProperties = new Properties();
+        connectProperties.setProperty("connectTimeout", String.valueOf(connTimeout * 1000)); // milliseconds
+        connectProperties.setProperty("user", properties.getProperty("datasource.username"));
+        connectProperties.setProperty("password", properties.getProperty("datasource.password"));
+
+        //jdbc:mysql
+        //jdbc:mysql:loadbalance
+        //jdbc:mysql:replication
+        dsn = properties.getProperty("datasource.dsn");
+        driver = DriverManager.getDriver(dsn); // skips the registered driver scan on every connect
     }
 
-    public Connection getConnection() throws SQLException {
-        Connection conn = pool.pollFirst();
-        if (!isConnectionValid(conn)) {
-            conn = newConnection();
+    private Connection newConnection() throws SQLException {
+        Connection conn = driver.connect(dsn, connectProperties);
+        if (conn == null) {
+            throw new SQLException("No suitable driver found for " + dsn);
         }
         return conn;
     }
 
-    public void putConnection(Connection conn, boolean queue) throws SQLException {
-        if (queue) {
-            if (!conn.getAutoCommit()) {
-                conn.rollback();
-                conn.setAutoCommit(true); // default setting
+    public PooledConnection getConnection() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool is closed");
+        }
+        long start = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(borrowTimeout, TimeUnit.SECONDS)) {
+                borrowTimeouts.increment();
+                throw new SQLException(String.format("Timed out after %ds waiting for a connection (maxPoolSize=%d)",
+                        borrowTimeout, maxPoolSize));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted waiting for a connection", e);
+        }
+        try {
+            PooledConnection pooled = borrow(start);
+            if (closed) {
+                removeConnection(pooled); // closed while this borrower waited
+                throw new SQLException("Connection pool is closed");
+            }
+            long wait = System.nanoTime() - start;
+            borrowWait.record(wait);
+            if (leakDetectionThreshold > 0) {
+                // a stack trace costs microseconds, so only a sample of borrows pay for one
+                boolean sampled = leakSampleRate > 0 && ThreadLocalRandom.current().nextDouble() < leakSampleRate;
+                pooled.borrowed(System.currentTimeMillis(), sampled ? new Throwable("Connection borrowed here") : null);
+            }
+            if (adaptiveSizing) {
+                periodBorrows.increment();
+                periodWaitNanos.add(wait);
+                int active = maxPoolSize - permits.availablePermits();
+                if (active > peakActive.get()) {
+                    peakActive.accumulateAndGet(active, Math::max);
+                }
+            }
+            return pooled;
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    private PooledConnection borrow(long start) throws SQLException {
+        // holding a permit guarantees an idle connection or room for a new one, if not now then
+        // once another holder returns theirs, which wakes one waiting borrower
+        long growAfter = start + TimeUnit.MILLISECONDS.toNanos(growWaitMillis);
+        boolean waiting = false;
+        try {
+            while (true) {
+                long seen = handoffs;
+                PooledConnection pooled = findOrOpen(growAfter);
+                if (pooled != null) {
+                    return pooled;
+                }
+                if (closed) {
+                    throw new SQLException("Connection pool is closed");
+                }
+                if (!waiting) {
+                    // count ourselves in, then look once more so a return in between isn't missed
+                    waiters.incrementAndGet();
+                    waiting = true;
+                    continue;
+                }
+                long timeout = MAX_HANDOFF_WAIT;
+                if (adaptiveSizing && growAfter - System.nanoTime() > 0) {
+                    timeout = Math.min(timeout, growAfter - System.nanoTime());
+                }
+                awaitHandoff(seen, timeout);
+            }
+        } finally {
+            if (waiting) {
+                waiters.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * An idle connection, a new one if there's room, or null.
+     */
+    private PooledConnection findOrOpen(long growAfter) throws SQLException {
+        while (true) {
+            PooledConnection pooled = lastUsed.get();
+            if (pooled != null && pooled.reserve()) {
+                if (isUsable(pooled)) {
+                    return pooled;
+                }
+                removeConnection(pooled);
+            }
+            for (PooledConnection candidate : pool) {
+                if (candidate.reserve()) {
+                    if (isUsable(candidate)) {
+                        lastUsed.set(candidate);
+                        return candidate;
+                    }
+                    removeConnection(candidate);
+                }
+            }
+            int total = totalConnections.get();
+            if (total < maxPoolSize && (!adaptiveSizing || total < targetPoolSize || System.nanoTime() - growAfter > 0)) {
+                // with adaptive sizing, past the target only once a return hasn't come within growWaitMillis
+                if (totalConnections.compareAndSet(total, total + 1)) {
+                    try {
+                        pooled = new PooledConnection(newConnection(), statementCacheSize);
+                        connectionsCreated.increment();
+                    } catch (SQLException | RuntimeException e) {
+                        totalConnections.decrementAndGet();
+                        signalHandoff();
+                        throw e;
+                    }
+                    pool.add(pooled);
+                    lastUsed.set(pooled);
+                    return pooled;
+                }
+            } else {
+                return null;
+            }
+        }
+    }
+
+    private void awaitHandoff(long seen, long timeoutNanos) throws SQLException {
+        handoffLock.lock();
+        try {
+            if (handoffs == seen) {
+                handedOff.awaitNanos(timeoutNanos);
             }
-            pool.add(conn);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted waiting for a connection", e);
+        } finally {
+            handoffLock.unlock();
+        }
+    }
+
+    /**
+     * Wakes a borrower waiting in borrow, after a connection was made idle or one was removed,
+     * which leaves room to open another.
+     */
+    private void signalHandoff() {
+        if (waiters.get() > 0) {
+            handoffLock.lock();
+            try {
+                handoffs++;
+                handedOff.signal();
+            } finally {
+                handoffLock.unlock();
+            }
+        }
+    }
+
+    public void putConnection(PooledConnection pooled, boolean queue) throws SQLException {
+        if (leakDetectionThreshold > 0) {
+            if (!pooled.returned()) {
+                return; // reclaimed as a leak, its permit was released then
+            }
+            if (pooled.isLeakReported()) {
+                LOG.info(() -> name + ": connection reported as leaked was returned");
+            }
+        }
+        try {
+            if (closed || queue && isExpired(pooled, System.currentTimeMillis())) {
+                queue = false; // retire instead of requeueing
+            }
+            if (queue) {
+                pooled.reset(); // only touches the driver for state the borrower changed
+                lastUsed.set(pooled);
+                pooled.release();
+                if (closed && pooled.reserve()) {
+                    removeConnection(pooled); // lost a race with close()
+                }
+                signalHandoff();
+            } else {
+                removeConnection(pooled);
+            }
+        } catch (SQLException e) {
+            removeConnection(pooled);
+            throw e;
+        } finally {
+            permits.release();
+        }
+    }
+
+    private void removeConnection(PooledConnection pooled) {
+        if (pooled.remove()) {
+            pool.remove(pooled);
+            totalConnections.decrementAndGet();
+            connectionsDestroyed.increment();
+            signalHandoff();
+            if (lastUsed.get() == pooled) {
+                lastUsed.remove();
+            }
+            pooled.getStatementCache().clear();
+            try {
+                pooled.getConnection().close();
+            } catch (SQLException e) {
+                // already broken
+            }
+        }
+    }
+
+    private boolean isUsable(PooledConnection pooled) {
+        // only pay for a network round trip when the connection has sat idle for a while
+        long now = System.currentTimeMillis();
+        if (isExpired(pooled, now)) {
+            return false;
+        }
+        try {
+            Connection conn = pooled.getConnection();
+            if (pooled.unvalidatedMillis(now) <= validationIdleTime) {
+                return !conn.isClosed();
+            }
+            if (isConnectionValid(conn)) {
+                pooled.validated();
+                return true;
+            }
+            return false;
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private boolean isExpired(PooledConnection pooled, long now) {
+        return maxLifetime > 0 && pooled.ageMillis(now) > maxLifetime * 1000L;
+    }
+
+    //---------------------------------------------------
+
+    private void startHousekeeper() {
+        boolean sizing = adaptiveSizing && sizingPeriod > 0;
+        if (housekeepingPeriod <= 0 && !sizing && leakDetectionThreshold <= 0) {
+            return;
+        }
+        housekeeper = Executors.newSingleThreadScheduledExecutor(daemonThreads("ConnectionPool-housekeeper"));
+        if (housekeepingPeriod > 0) {
+            housekeeper.scheduleWithFixedDelay(this::housekeep, housekeepingPeriod, housekeepingPeriod, TimeUnit.SECONDS);
+        }
+        if (sizing) {
+            housekeeper.scheduleWithFixedDelay(this::resize, sizingPeriod, sizingPeriod, TimeUnit.SECONDS);
+        }
+        if (leakDetectionThreshold > 0) {
+            int period = Math.max(1, leakDetectionThreshold / 2);
+            housekeeper.scheduleWithFixedDelay(this::detectLeaks, period, period, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Reports connections held longer than the leak threshold, once per loan, with the
+     * borrow stack trace when that loan was sampled. With leakReclaim the connection is
+     * closed and its permit handed back, so a leak can't exhaust the pool.
+     */
+    void detectLeaks() {
+        long now = System.currentTimeMillis();
+        long threshold = leakDetectionThreshold * 1000L;
+        for (PooledConnection pooled : pool) {
+            long held = pooled.heldMillis(now);
+            if (held <= threshold || pooled.isLeakReported()) {
+                continue;
+            }
+            pooled.leakReported();
+            leaksDetected.increment();
+            Throwable site = pooled.getBorrowSite();
+            String message = String.format("%s: connection held for %dms, possible leak%s", name, held,
+                    site != null ? "" : " (borrow site not sampled, see datasource.leakSampleRate)");
+            LOG.log(Level.WARNING, message, site);
+            if (leakReclaim && pooled.returned()) {
+                removeConnection(pooled);
+                permits.release();
+                leaksReclaimed.increment();
+            }
+        }
+    }
+
+    /**
+     * Grows toward maxPoolSize when borrowers queued, waited or used every connection during
+     * the last period; closes idle connections, a step at a time down to minIdle, once demand
+     * has stayed well below the pool size for several periods. Between periods borrowers open
+     * connections on demand only up to the target, see borrow.
+     */
+    void resize() {
+        int awaiting = permits.getQueueLength();
+        int peak = peakActive.getAndSet(getActiveConnections());
+        long borrows = periodBorrows.sumThenReset();
+        long waitNanos = periodWaitNanos.sumThenReset();
+        double meanWaitMillis = borrows == 0 ? 0 : waitNanos / 1e6 / borrows;
+        int total = totalConnections.get();
+        int step = Math.max(1, total / 4);
+        int demand = peak + awaiting;
+        String signals = String.format("peak=%d, awaiting=%d, meanWait=%.1fms", peak, awaiting, meanWaitMillis);
+
+        if (total < maxPoolSize && (awaiting > 0 || meanWaitMillis > growWaitMillis || demand >= total)) {
+            quietPeriods = 0;
+            int target = Math.min(maxPoolSize, Math.max(demand, total) + step);
+            decided(String.format("grow %d -> %d (%s)", total, target, signals), target);
+            poolGrowths.increment();
+            try {
+                openConnections(target - total);
+            } catch (SQLException e) {
+                LOG.log(Level.WARNING, "Could not grow " + name + " to " + target, e);
+            }
+        } else if (total > minIdle && demand + step < total) {
+            if (++quietPeriods < SHRINK_AFTER) {
+                return;
+            }
+            quietPeriods = 0;
+            int target = Math.max(minIdle, Math.max(demand + step, total - step));
+            decided(String.format("shrink %d -> %d (%s)", total, target, signals), target);
+            poolShrinks.increment();
+            closeIdle(total - target);
         } else {
-            conn.close();
+            quietPeriods = 0;
+        }
+    }
+
+    private void decided(String decision, int target) {
+        targetPoolSize = target;
+        lastSizingDecision = decision;
+        LOG.fine(() -> name + ": " + decision);
+    }
+
+    private void closeIdle(int count) {
+        for (PooledConnection pooled : pool) {
+            if (count <= 0) {
+                return;
+            }
+            if (pooled.reserve()) {
+                removeConnection(pooled);
+                count--;
+            }
+        }
+    }
+
+    void housekeep() {
+        long now = System.currentTimeMillis();
+        int idle = poolSize();
+        for (PooledConnection pooled : pool) {
+            if (!pooled.reserve()) {
+                continue; // in use or already removed
+            }
+            if (isExpired(pooled, now)) {
+                removeConnection(pooled);
+                idle--;
+            } else if (idle > minIdle && idleTimeout > 0 && pooled.idleMillis(now) > idleTimeout * 1000L) {
+                removeConnection(pooled);
+                idle--;
+            } else if (keepaliveTime > 0 && pooled.unvalidatedMillis(now) > keepaliveTime * 1000L) {
+                try {
+                    if (isConnectionValid(pooled.getConnection())) {
+                        pooled.validated();
+                        pooled.unreserve();
+                        signalHandoff();
+                    } else {
+                        removeConnection(pooled);
+                        idle--;
+                    }
+                } catch (SQLException e) {
+                    removeConnection(pooled);
+                    idle--;
+                }
+            } else {
+                pooled.unreserve();
+                signalHandoff();
+            }
+        }
+        try {
+            // top back up to minIdle, e.g. after a failover dropped every connection
+            openConnections(Math.min(minIdle - poolSize(), maxPoolSize - totalConnections.get()));
+        } catch (SQLException e) {
+            LOG.log(Level.WARNING, "Could not refill " + name + " to minIdle=" + minIdle, e);
+        }
+    }
+
+    private static ThreadFactory daemonThreads(String name) {
+        return r -> {
+            Thread thread = new Thread(r, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    public void close() {
+        closed = true;
+        if (housekeeper != null) {
+            housekeeper.shutdownNow();
+        }
+        unregisterMBeans();
+        for (PooledConnection pooled : pool) {
+            if (pooled.reserve()) {
+                removeConnection(pooled);
+            }
+        }
+        handoffLock.lock();
+        try {
+            handoffs++;
+            handedOff.signalAll(); // waiting borrowers fail instead of waiting for a return
+        } finally {
+            handoffLock.unlock();
         }
     }
 
@@ -88,7 +893,8 @@ public class ConnectionPool {
 
     public Connection getLastConnection() {
         // for test purposes to ensure the connection was returned as expected
-        return this.pool.pollLast();
+        PooledConnection pooled = lastUsed.get();
+        return pooled != null && pooled.isIdle() ? pooled.getConnection() : null;
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,45 @@
+package library;
+
+public interface ConnectionPoolMXBean {
+
+    int getTotalConnections();
+
+    int getIdleConnections();
+
+    int getActiveConnections();
+
+    int getMaxPoolSize();
+
+    int getThreadsAwaitingConnection();
+
+    long getBorrowCount();
+
+    long getBorrowTimeouts();
+
+    double getBorrowWaitMeanMillis();
+
+    double getBorrowWaitP99Millis();
+
+    double getBorrowWaitMaxMillis();
+
+    long getConnectionsCreated();
+
+    long getConnectionsDestroyed();
+
+    int getTargetPoolSize();
+
+    long getPoolGrowths();
+
+    long getPoolShrinks();
+
+    String getLastSizingDecision();
+
+    long getLeaksDetected();
+
+    long getLeaksReclaimed();
+
+    long getStatementCacheHits();
+
+    long getStatementCacheMisses();
+
+}
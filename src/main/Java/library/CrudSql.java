@@ -0,0 +1,140 @@
+package library;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * SQL text and parameter order for the single row helpers, generated once per
+ * (operation, table, key column, column set) and then reused.
+ */
+public class CrudSql {
+
+    private static final int MAX_ENTRIES = 1024;
+    private static final Map<Key, CrudSql> CACHE = new ConcurrentHashMap<>();
+
+    private enum Op { INSERT, UPDATE, DELETE, SELECT }
+
+    private final String sql;
+    private final String[] columns; // parameter order, the key value (if any) comes last
+    private final boolean keyed;
+
+    private CrudSql(String sql, String[] columns, boolean keyed) {
+        this.sql = sql;
+        this.columns = columns;
+        this.keyed = keyed;
+    }
+
+    public String getSql() {
+        return sql;
+    }
+
+    public List<Object> params(Map<String, Object> vals, Object id) {
+        List<Object> params = new ArrayList<>(columns.length + 1);
+        for (String column : columns) {
+            params.add(vals.get(column));
+        }
+        if (keyed) {
+            params.add(id);
+        }
+        return params;
+    }
+
+    //---------------------------------------------------
+
+    public static CrudSql insert(String tableName, Set<String> colNames) {
+        return lookup(new Key(Op.INSERT, tableName, null, colNames));
+    }
+
+    public static CrudSql update(String tableName, String idColumn, Set<String> colNames) {
+        return lookup(new Key(Op.UPDATE, tableName, idColumn, colNames));
+    }
+
+    public static CrudSql delete(String tableName, String idColumn) {
+        return lookup(new Key(Op.DELETE, tableName, idColumn, Collections.emptySet()));
+    }
+
+    public static CrudSql select(String tableName, String idColumn) {
+        return lookup(new Key(Op.SELECT, tableName, idColumn, Collections.emptySet()));
+    }
+
+    private static CrudSql lookup(Key key) {
+        CrudSql crud = CACHE.get(key);
+        if (crud == null) {
+            crud = build(key);
+            if (CACHE.size() >= MAX_ENTRIES) {
+                // keep the cache bounded, dropping an arbitrary entry is good enough for generated SQL
+                Iterator<Key> it = CACHE.keySet().iterator();
+                if (it.hasNext()) {
+                    it.next();
+                    it.remove();
+                }
+            }
+            CACHE.putIfAbsent(key.copy(), crud); // never keep a reference to the caller's live key set
+        }
+        return crud;
+    }
+
+    private static CrudSql build(Key key) {
+        String[] columns = key.colNames.toArray(new String[0]);
+        switch (key.op) {
+            case INSERT:
+                return new CrudSql(String.format("INSERT INTO %s (%s) VALUES (%s)",
+                        key.tableName,
+                        String.join(",", columns),
+                        String.join(",", Collections.nCopies(columns.length, "?"))), columns, false);
+            case UPDATE:
+                List<String> sets = new ArrayList<>(columns.length);
+                for (String column : columns) {
+                    sets.add(column + " = ?");
+                }
+                return new CrudSql(String.format("UPDATE %s SET %s WHERE %s = ? LIMIT 1",  // Nb. only updates 1 row (faster)
+                        key.tableName,
+                        String.join(",", sets),
+                        key.idColumn), columns, true);
+            case DELETE:
+                return new CrudSql(String.format("DELETE FROM %s WHERE %s = ? LIMIT 1",
+                        key.tableName,
+                        key.idColumn), columns, true);
+            default:
+                return new CrudSql(String.format("SELECT * FROM %s WHERE %s = ? LIMIT 1",
+                        key.tableName,
+                        key.idColumn), columns, true);
+        }
+    }
+
+    private static final class Key {
+
+        private final Op op;
+        private final String tableName;
+        private final String idColumn;
+        private final Set<String> colNames;
+        private final int hash;
+
+        Key(Op op, String tableName, String idColumn, Set<String> colNames) {
+            this.op = op;
+            this.tableName = tableName;
+            this.idColumn = idColumn;
+            this.colNames = colNames;
+            this.hash = Objects.hash(op, tableName, idColumn, colNames);
+        }
+
+        Key copy() {
+            return new Key(op, tableName, idColumn, new LinkedHashSet<>(colNames));
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return hash == key.hash && op == key.op && tableName.equals(key.tableName)
+                    && Objects.equals(idColumn, key.idColumn) && colNames.equals(key.colNames);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+}
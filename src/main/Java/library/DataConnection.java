@@ -7,25 +7,88 @@ import java.util.*;
 
 public class DataConnection implements AutoCloseable {
 
+    public static final int FETCH_ROW_BY_ROW = Integer.MIN_VALUE; // MySQL streaming mode
+    private static final int MAX_PARAMETERS = 65535; // placeholders allowed in one MySQL statement
+
     private ConnectionPool pool;
+    private ReplicaSet replicas;
+    private QueryCache queryCache;
+    private RowCache rowCache;
+    private List<String> uncommittedWrites; // re-invalidated on commit, see invalidate()
+    private PooledConnection pooled;
     private Connection conn;
     private boolean requeue = true;
+    private boolean closed;
+    private boolean wrote; // reads stay on the primary after a write so they see it
 
     public DataConnection(ConnectionPool pool) throws SQLException {
         this.pool = pool;
         setConnection();
     }
 
-    public Connection getConnection() {
-        return conn;
+    public DataConnection(ConnectionPool pool, ReplicaSet replicas) {
+        // the primary connection is only borrowed once something needs it
+        this.pool = pool;
+        this.replicas = replicas;
+    }
+
+    public Connection getConnection() throws SQLException {
+        if (closed) {
+            return null;
+        }
+        connection();
+        return pooled.getTrackedConnection();
     }
 
     private void setConnection() throws SQLException {
-        conn = pool.getConnection();
+        pooled = pool.getConnection();
+        conn = pooled.getConnection();
+    }
+
+    private Connection connection() throws SQLException {
+        if (conn == null) {
+            if (closed) {
+                throw new SQLException("DataConnection is closed");
+            }
+            setConnection();
+        }
+        return conn;
+    }
+
+    private boolean readFromReplica() throws SQLException {
+        // only reads outside a transaction may go to a replica
+        return replicas != null && !wrote && (conn == null || pooled.getAutoCommit());
+    }
+
+    void setQueryCache(QueryCache queryCache) {
+        this.queryCache = queryCache;
+    }
+
+    void setRowCache(RowCache rowCache) {
+        this.rowCache = rowCache;
+    }
+
+    public RowCache getRowCache() {
+        return rowCache;
+    }
+
+    public QueryCache getQueryCache() {
+        return queryCache;
     }
 
     public void setAutoCommit(boolean autoCommit) throws SQLException {
-        conn.setAutoCommit(autoCommit);
+        connection();
+        pooled.setAutoCommit(autoCommit);
+    }
+
+    public void setTransactionIsolation(int level) throws SQLException {
+        connection();
+        pooled.setTransactionIsolation(level);
+    }
+
+    public void setCatalog(String catalog) throws SQLException {
+        connection();
+        pooled.setCatalog(catalog);
     }
 
     public void setRequeue(boolean requeue) {
@@ -37,67 +100,198 @@ public class DataConnection implements AutoCloseable {
     }
 
     public boolean isValid() throws SQLException {
-        return pool.isConnectionValid(conn);
+        return pool.isConnectionValid(connection());
     }
 
     //---------------------------------------------------
 
     public Long insertRow(String tableName, Map<String, Object> vals) throws SQLException {
-        List<String> colNames = new ArrayList<>();
-        List<Object> colVals = new ArrayList<>();
+        CrudSql crud = CrudSql.insert(tableName, vals.keySet());
+        return nativeInsert(crud.getSql(), crud.params(vals, null));
+    }
+
+    public List<Long> insertRows(String tableName, List<Map<String, Object>> rows) throws SQLException {
+        Collection<List<Integer>> groups = groupByColumns(rows); // each group shares one multi-row INSERT shape
+        Long[] keys = new Long[rows.size()];
+        inTransaction(() -> {
+            for (List<Integer> group : groups) {
+                List<String> colNames = new ArrayList<>(rows.get(group.get(0)).keySet());
+                int from = 0;
+                while (from < group.size()) {
+                    List<Object> colVals = new ArrayList<>();
+                    int to = nextChunk(rows, group, colNames, from, colVals);
+                    List<Long> chunkKeys = nativeInsertAll(insertSql(tableName, colNames, to - from), colVals);
+                    for (int i = 0; i < chunkKeys.size() && from + i < to; i++) {
+                        keys[group.get(from + i)] = chunkKeys.get(i);
+                    }
+                    from = to;
+                }
+            }
+            return null;
+        });
+        return Arrays.asList(keys);
+    }
 
-        for (Map.Entry<String, Object> val : vals.entrySet()) {
-            colNames.add(val.getKey());
-            colVals.add(val.getValue());
+    public <T> List<Long> insertRows(List<T> entities) throws SQLException {
+        if (entities.isEmpty()) {
+            return new ArrayList<>();
         }
+        EntityMetadata<T> metadata = metadataOf(entities);
+        return insertRows(metadata.getTable(), toRows(metadata, entities));
+    }
 
-        String sql = String.format("INSERT INTO %s (%s) VALUES (%s)",
-                tableName,
-                String.join(",", colNames),
-                String.join(",", Collections.nCopies(colNames.size(), "?")));
+    public int upsertRows(String tableName, List<Map<String, Object>> rows) throws SQLException {
+        return upsertRows(tableName, rows, null);
+    }
 
-        return nativeInsert(sql, colVals);
+    /**
+     * INSERT ... ON DUPLICATE KEY UPDATE for every row, chunked into multi-row statements like insertRows.
+     * updateColumns limits which columns are overwritten on a duplicate key (null = all columns of the row).
+     * A multi-row statement has no count per row, so this returns MySQL's total affected count:
+     * 1 for each row inserted, 2 for each updated, 0 for each unchanged. See upsertRowCounts for counts per row.
+     */
+    public int upsertRows(String tableName, List<Map<String, Object>> rows, Collection<String> updateColumns) throws SQLException {
+        return inTransaction(() -> {
+            int count = 0;
+            for (List<Integer> group : groupByColumns(rows)) {
+                List<String> colNames = new ArrayList<>(rows.get(group.get(0)).keySet());
+                String onDuplicate = onDuplicateKeyUpdate(colNames, updateColumns);
+                int from = 0;
+                while (from < group.size()) {
+                    List<Object> colVals = new ArrayList<>();
+                    int to = nextChunk(rows, group, colNames, from, colVals);
+                    count += nativeUpdate(insertSql(tableName, colNames, to - from) + onDuplicate, colVals);
+                    from = to;
+                }
+            }
+            return count;
+        });
     }
 
-    public boolean updateRow(String tableName, Pair<String, Object> id, Map<String, Object> vals) throws SQLException {
-        List<String> colNames = new ArrayList<>();
-        List<Object> colVals = new ArrayList<>();
+    /**
+     * upsertRows, but one statement per row sent as JDBC batches, so the affected count of each row
+     * comes back in input order: 1 inserted, 2 updated, 0 unchanged. Without rewriteBatchedStatements
+     * on the connection that is a round trip per row; with it the driver reports Statement.SUCCESS_NO_INFO.
+     */
+    public int[] upsertRowCounts(String tableName, List<Map<String, Object>> rows, Collection<String> updateColumns) throws SQLException {
+        int[] counts = new int[rows.size()];
+        inTransaction(() -> {
+            for (List<Integer> group : groupByColumns(rows)) {
+                List<String> colNames = new ArrayList<>(rows.get(group.get(0)).keySet());
+                String sql = insertSql(tableName, colNames, 1) + onDuplicateKeyUpdate(colNames, updateColumns);
+                for (int from = 0; from < group.size(); from += pool.getBatchSize()) {
+                    int to = Math.min(group.size(), from + pool.getBatchSize());
+                    List<List<Object>> batch = new ArrayList<>(to - from);
+                    for (int i = from; i < to; i++) {
+                        Map<String, Object> row = rows.get(group.get(i));
+                        List<Object> colVals = new ArrayList<>(colNames.size());
+                        for (String colName : colNames) {
+                            colVals.add(row.get(colName));
+                        }
+                        batch.add(colVals);
+                    }
+                    int[] batchCounts = nativeBatch(sql, batch);
+                    for (int i = 0; i < batchCounts.length && from + i < to; i++) {
+                        counts[group.get(from + i)] = batchCounts[i];
+                    }
+                }
+            }
+            return null;
+        });
+        return counts;
+    }
 
-        for (Map.Entry<String, Object> e : vals.entrySet()) {
-            colNames.add(e.getKey() + " = ?");
-            colVals.add(e.getValue());
+    public <T> int upsertRows(List<T> entities, Collection<String> updateColumns) throws SQLException {
+        if (entities.isEmpty()) {
+            return 0;
         }
+        EntityMetadata<T> metadata = metadataOf(entities);
+        return upsertRows(metadata.getTable(), toRows(metadata, entities), updateColumns);
+    }
 
-        colVals.add(id.getValue());
+    public <T> int upsertRows(List<T> entities) throws SQLException {
+        return upsertRows(entities, null);
+    }
 
-        String sql = String.format("UPDATE %s SET %s WHERE %s = ? LIMIT 1",  // Nb. only updates 1 row (faster)
-                tableName,
-                String.join(",", colNames),
-                id.getKey()
-        );
+    /**
+     * Runs work as one transaction. Under autocommit that means all or nothing, with a single commit
+     * at the end; on failure it rolls back and autocommit is restored, as the caller may keep using
+     * this connection. Inside the caller's own transaction the work just runs.
+     */
+    private <R> R inTransaction(Work<R> work) throws SQLException {
+        connection();
+        boolean autoCommit = pooled.getAutoCommit();
+        wrote = true;
+        if (!autoCommit) {
+            return work.run();
+        }
+        pooled.setReadOnly(false);
+        pooled.setAutoCommit(false);
+        R result;
+        try {
+            result = work.run();
+            commit(); // also re-invalidates the caches now the rows are visible
+        } catch (SQLException | RuntimeException e) {
+            rollbackQuietly(e);
+            restoreAutoCommit(e);
+            throw e;
+        }
+        pooled.setAutoCommit(true);
+        return result;
+    }
 
-        return nativeUpdate(sql, colVals) == 1;
+    private interface Work<R> {
+        R run() throws SQLException;
     }
 
-    public boolean deleteRow(String tableName, Pair<String, Object> id) throws SQLException {
-        String sql = String.format("DELETE FROM %s WHERE %s = ? LIMIT 1",  // Nb. only updates 1 row (faster)
-                tableName,
-                id.getKey()
-        );
+    @SuppressWarnings("unchecked")
+    private static <T> EntityMetadata<T> metadataOf(List<T> entities) {
+        return EntityMetadata.forClass((Class<T>) entities.get(0).getClass());
+    }
 
-        List<Object> colVals = new ArrayList<>();
-        colVals.add(id.getValue());
+    private static <T> List<Map<String, Object>> toRows(EntityMetadata<T> metadata, List<T> entities) throws SQLException {
+        List<Map<String, Object>> rows = new ArrayList<>(entities.size());
+        for (T entity : entities) {
+            rows.add(metadata.toRow(entity));
+        }
+        return rows;
+    }
 
-        return nativeUpdate(sql, colVals) == 1;
+    public boolean updateRow(String tableName, Pair<String, Object> id, Map<String, Object> vals) throws SQLException {
+        CrudSql crud = CrudSql.update(tableName, id.getKey(), vals.keySet());
+        boolean updated = executeUpdate(crud.getSql(), crud.params(vals, id.getValue()), true) == 1;
+        if (rowCache != null) {
+            if (pooled.getAutoCommit()) {
+                rowCache.updated(tableName, id.getKey(), id.getValue(), vals); // write-through
+            } else {
+                rowCache.removed(tableName, id.getKey(), id.getValue()); // not visible to others yet
+            }
+        }
+        return updated;
+    }
+
+    public boolean deleteRow(String tableName, Pair<String, Object> id) throws SQLException {
+        CrudSql crud = CrudSql.delete(tableName, id.getKey());
+        boolean deleted = executeUpdate(crud.getSql(), Collections.singletonList(id.getValue()), true) == 1;
+        if (rowCache != null) {
+            rowCache.removed(tableName, id.getKey(), id.getValue());
+        }
+        return deleted;
     }
 
     public Map<String, Object> selectRow(String tableName, Pair<String, Object> id) throws SQLException {
-        String sql = String.format("SELECT * FROM %s WHERE %s = ? LIMIT 1",
-                tableName,
-                id.getKey()
-        );
+        if (rowCache != null && (conn == null || pooled.getAutoCommit())) {
+            // only outside a transaction, where the row can't hold our own uncommitted changes
+            return rowCache.get(tableName, id.getKey(), id.getValue(), value -> loadRow(tableName, id, true));
+        }
+        return loadRow(tableName, id, false);
+    }
 
-        List<Map<String, Object>> rows = nativeSelect(sql, Collections.singletonList(id.getValue()));
+    private Map<String, Object> loadRow(String tableName, Pair<String, Object> id, boolean cached) throws SQLException {
+        CrudSql crud = CrudSql.select(tableName, id.getKey());
+        List<Object> vals = Collections.singletonList(id.getValue());
+        // a row for the shared cache comes from the primary, a lagging replica would make it stale
+        List<Map<String, Object>> rows = cached ? primarySelect(crud.getSql(), vals) : nativeSelect(crud.getSql(), vals);
 
         if (!rows.isEmpty()) {
             return rows.get(0);
@@ -108,14 +302,16 @@ public class DataConnection implements AutoCloseable {
     //---------------------------------------------------
 
     public long nativeInsert(String sql, List<Object> vals) throws SQLException {
-        conn.setReadOnly(false);
-        try (PreparedStatement stmnt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
-            if (vals != null && !vals.isEmpty()) {
-                for (int i = 0; i < vals.size(); i++) {
-                    stmnt.setObject(i + 1, vals.get(i));
-                }
-            }
-            if (!stmnt.execute()) { // false if the first result is an update count or there is no result
+        readOnly(false);
+        wrote = true;
+        long start = System.nanoTime();
+        PreparedStatement stmnt = null;
+        try {
+            stmnt = prepare(sql, Statement.RETURN_GENERATED_KEYS);
+            bind(stmnt, vals);
+            boolean hasResultSet = stmnt.execute();
+            invalidate(sql, false);
+            if (!hasResultSet) { // false if the first result is an update count or there is no result
                 try (ResultSet generatedKeys = stmnt.getGeneratedKeys()) {
                     if (generatedKeys.next()) {
                         return generatedKeys.getLong(1);
@@ -125,26 +321,90 @@ public class DataConnection implements AutoCloseable {
         } catch (SQLException e) {
             requeue = false;
             throw e;
+        } finally {
+            record(sql, start, 1);
+            release(sql, Statement.RETURN_GENERATED_KEYS, stmnt);
         }
         return -1L;
     }
 
-    public int nativeUpdate(String sql, List<Object> vals) throws SQLException {
-        conn.setReadOnly(false);
-        try (PreparedStatement stmnt = conn.prepareStatement(sql)) {
-            if (vals != null && !vals.isEmpty()) {
-                for (int i = 0; i < vals.size(); i++) {
-                    stmnt.setObject(i + 1, vals.get(i));
+    public List<Long> nativeInsertAll(String sql, List<Object> vals) throws SQLException {
+        readOnly(false);
+        wrote = true;
+        List<Long> keys = new ArrayList<>();
+        long start = System.nanoTime();
+        PreparedStatement stmnt = null;
+        try {
+            stmnt = prepare(sql, Statement.RETURN_GENERATED_KEYS);
+            bind(stmnt, vals);
+            boolean hasResultSet = stmnt.execute();
+            invalidate(sql, false);
+            if (!hasResultSet) {
+                try (ResultSet generatedKeys = stmnt.getGeneratedKeys()) {
+                    while (generatedKeys.next()) {
+                        keys.add(generatedKeys.getLong(1));
+                    }
                 }
             }
-            if (!stmnt.execute()) {
-                return stmnt.getUpdateCount();
+        } catch (SQLException e) {
+            requeue = false;
+            throw e;
+        } finally {
+            record(sql, start, keys.size());
+            release(sql, Statement.RETURN_GENERATED_KEYS, stmnt);
+        }
+        return keys;
+    }
+
+    public int[] nativeBatch(String sql, List<List<Object>> batch) throws SQLException {
+        readOnly(false);
+        wrote = true;
+        long start = System.nanoTime();
+        PreparedStatement stmnt = null;
+        try {
+            stmnt = prepare(sql, Statement.NO_GENERATED_KEYS);
+            for (List<Object> vals : batch) {
+                bind(stmnt, vals);
+                stmnt.addBatch();
+            }
+            int[] counts = stmnt.executeBatch();
+            invalidate(sql, false);
+            return counts;
+        } catch (SQLException e) {
+            requeue = false;
+            throw e;
+        } finally {
+            record(sql, start, batch.size());
+            release(sql, Statement.NO_GENERATED_KEYS, stmnt);
+        }
+    }
+
+    public int nativeUpdate(String sql, List<Object> vals) throws SQLException {
+        return executeUpdate(sql, vals, false);
+    }
+
+    private int executeUpdate(String sql, List<Object> vals, boolean rowCached) throws SQLException {
+        readOnly(false);
+        wrote = true;
+        long start = System.nanoTime();
+        int count = -1;
+        PreparedStatement stmnt = null;
+        try {
+            stmnt = prepare(sql, Statement.NO_GENERATED_KEYS);
+            bind(stmnt, vals);
+            boolean hasResultSet = stmnt.execute();
+            invalidate(sql, rowCached);
+            if (!hasResultSet) {
+                count = stmnt.getUpdateCount();
             }
         } catch (SQLException e) {
             requeue = false;
             throw e;
+        } finally {
+            record(sql, start, count);
+            release(sql, Statement.NO_GENERATED_KEYS, stmnt);
         }
-        return -1;
+        return count;
     }
 
     public int nativeDelete(String sql, List<Object> vals) throws SQLException {
@@ -152,31 +412,114 @@ public class DataConnection implements AutoCloseable {
     }
 
     public List<Map<String, Object>> nativeSelect(String sql, List<Object> vals) throws SQLException {
-        conn.setReadOnly(true);
-        List<Map<String, Object>> rows = new LinkedList<>(); // keep rows ordered
-        try (PreparedStatement stmnt = conn.prepareStatement(sql)) {
-            if (vals != null && !vals.isEmpty()) {
-                for (int i = 0; i < vals.size(); i++) {
-                    stmnt.setObject(i + 1, vals.get(i));
+        if (readFromReplica()) {
+            return replicas.read(replica -> replica.nativeSelect(sql, vals));
+        }
+        return primarySelect(sql, vals);
+    }
+
+    private List<Map<String, Object>> primarySelect(String sql, List<Object> vals) throws SQLException {
+        readOnly(true);
+        List<Map<String, Object>> rows = new ArrayList<>(); // keep rows ordered
+        long start = System.nanoTime();
+        PreparedStatement stmnt = null;
+        try {
+            stmnt = prepare(sql, Statement.NO_GENERATED_KEYS);
+            bind(stmnt, vals);
+            try (ResultSet rs = stmnt.executeQuery()) {
+                RowSchema schema = RowSchema.of(rs.getMetaData()); // resolved once, shared by every row
+                while (rs.next()) {
+                    rows.add(schema.read(rs));
                 }
             }
-            ResultSet rs = stmnt.executeQuery();
-            ResultSetMetaData meta = rs.getMetaData();
-            Map<String, Object> row;
-            while (rs.next()) {
-                row = new LinkedHashMap<>(); // keep columns ordered
-                for (int i = 0; i < meta.getColumnCount(); i++) {
-                    row.put(meta.getColumnName(i + 1), rs.getObject(i + 1));
-                }
-                rows.add(row);
+        } catch (SQLException e) {
+            requeue = false;
+            throw e;
+        } finally {
+            record(sql, start, rows.size());
+            release(sql, Statement.NO_GENERATED_KEYS, stmnt);
+        }
+        return rows;
+    }
+
+    /**
+     * Reads the result into typed column arrays instead of one map per row, for queries
+     * that return many numeric rows.
+     */
+    public ColumnarResult columnarSelect(String sql, List<Object> vals) throws SQLException {
+        if (readFromReplica()) {
+            return replicas.read(replica -> replica.columnarSelect(sql, vals));
+        }
+        readOnly(true);
+        ColumnarResult result = null;
+        long start = System.nanoTime();
+        PreparedStatement stmnt = null;
+        try {
+            stmnt = prepare(sql, Statement.NO_GENERATED_KEYS);
+            bind(stmnt, vals);
+            try (ResultSet rs = stmnt.executeQuery()) {
+                result = ColumnarResult.read(rs);
             }
         } catch (SQLException e) {
             requeue = false;
             throw e;
+        } finally {
+            record(sql, start, result == null ? 0 : result.size());
+            release(sql, Statement.NO_GENERATED_KEYS, stmnt);
+        }
+        return result;
+    }
+
+    public <T> List<T> nativeSelect(String sql, List<Object> vals, Class<T> clazz) throws SQLException {
+        if (readFromReplica()) {
+            return replicas.read(replica -> replica.nativeSelect(sql, vals, clazz));
+        }
+        readOnly(true);
+        long start = System.nanoTime();
+        List<T> rows = Collections.emptyList();
+        PreparedStatement stmnt = null;
+        try {
+            stmnt = prepare(sql, Statement.NO_GENERATED_KEYS);
+            bind(stmnt, vals);
+            try (ResultSet rs = stmnt.executeQuery()) {
+                rows = new DataMapper<>(clazz).map(rs);
+            }
+        } catch (SQLException e) {
+            requeue = false;
+            throw e;
+        } finally {
+            record(sql, start, rows.size());
+            release(sql, Statement.NO_GENERATED_KEYS, stmnt);
         }
         return rows;
     }
 
+    public RowCursor nativeStream(String sql, List<Object> vals, int fetchSize) throws SQLException {
+        readOnly(true);
+        PreparedStatement stmnt = null;
+        try {
+            // not taken from the statement cache: the statement stays open for the life of the cursor
+            stmnt = conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            stmnt.setFetchSize(fetchSize);
+            bind(stmnt, vals);
+            return new RowCursor(this, stmnt, sql, fetchSize);
+        } catch (SQLException e) {
+            requeue = false;
+            if (stmnt != null) {
+                stmnt.close();
+            }
+            throw e;
+        }
+    }
+
+    public RowCursor nativeStream(String sql, List<Object> vals) throws SQLException {
+        return nativeStream(sql, vals, pool.getFetchSize());
+    }
+
+    public RowCursor nativeStream(String sql) throws SQLException {
+        return nativeStream(sql, new LinkedList<>());
+    }
+
     public List<Map<String, Object>> nativeSelect(String sql) throws SQLException {
         return nativeSelect(sql, new LinkedList<>());
     }
@@ -197,20 +540,226 @@ public class DataConnection implements AutoCloseable {
         return scalar(sql, new LinkedList<>());
     }
 
+    /**
+     * nativeSelect through the DataSource's query cache, when one is configured.
+     * The returned rows are shared with other callers, so they are read-only.
+     */
+    @SuppressWarnings("unchecked")
+    public List<Map<String, Object>> cachedSelect(String sql, List<Object> vals) throws SQLException {
+        if (queryCache == null || wrote || (conn != null && !pooled.getAutoCommit())) {
+            // our own writes may not be committed, the cache must not hold or hide them
+            return nativeSelect(sql, vals);
+        }
+        Object cached = queryCache.get(sql, vals);
+        if (cached != null) {
+            return (List<Map<String, Object>>) cached;
+        }
+        long[] snapshot = queryCache.snapshot(sql);
+        // from the primary, a replica lagging behind the write that invalidated the entry would refill it stale
+        List<Map<String, Object>> loaded = primarySelect(sql, vals);
+        List<Map<String, Object>> rows = new ArrayList<>(loaded.size());
+        for (Map<String, Object> row : loaded) {
+            rows.add(Collections.unmodifiableMap(row)); // every caller gets these same rows
+        }
+        rows = Collections.unmodifiableList(rows);
+        queryCache.put(sql, vals, rows, snapshot);
+        return rows;
+    }
+
+    public Object cachedScalar(String sql, List<Object> vals) throws SQLException {
+        List<Map<String, Object>> rows = cachedSelect(sql, vals);
+        if (!rows.isEmpty()) {
+            return rows.get(0).values().iterator().next();
+        }
+        return null;
+    }
+
+    //---------------------------------------------------
+
+    private void invalidate(String sql, boolean rowCached) {
+        if (queryCache == null && rowCache == null) {
+            return;
+        }
+        if (queryCache != null) {
+            queryCache.invalidate(sql);
+        }
+        if (rowCache != null && !rowCached) { // updateRow/deleteRow keep the row cache current themselves
+            rowCache.invalidate(sql);
+        }
+        if (!pooled.getAutoCommit()) {
+            // others may cache the old rows until this commits, so invalidate again then
+            if (uncommittedWrites == null) {
+                uncommittedWrites = new ArrayList<>();
+            }
+            uncommittedWrites.add(sql);
+        }
+    }
+
+    private void readOnly(boolean readOnly) throws SQLException {
+        connection();
+        pooled.setReadOnly(readOnly); // no driver call unless it changes
+    }
+
+    private PreparedStatement prepare(String sql, int autoGeneratedKeys) throws SQLException {
+        PreparedStatement stmnt = pooled.getStatementCache().take(sql, autoGeneratedKeys);
+        if (stmnt == null) {
+            stmnt = conn.prepareStatement(sql, autoGeneratedKeys);
+        }
+        return stmnt;
+    }
+
+    private void release(String sql, int autoGeneratedKeys, PreparedStatement stmnt) throws SQLException {
+        if (stmnt == null) {
+            return;
+        }
+        if (requeue) {
+            pooled.getStatementCache().put(sql, autoGeneratedKeys, stmnt);
+        } else {
+            stmnt.close(); // the connection is being discarded
+        }
+    }
+
+    private static void bind(PreparedStatement stmnt, List<Object> vals) throws SQLException {
+        if (vals != null && !vals.isEmpty()) {
+            for (int i = 0; i < vals.size(); i++) {
+                stmnt.setObject(i + 1, vals.get(i));
+            }
+        }
+    }
+
+    private void rollbackQuietly(Exception cause) {
+        try {
+            rollback();
+        } catch (SQLException e) {
+            cause.addSuppressed(e);
+            requeue = false;
+        }
+    }
+
+    private void restoreAutoCommit(Exception cause) {
+        try {
+            pooled.setAutoCommit(true);
+        } catch (SQLException e) {
+            cause.addSuppressed(e);
+            requeue = false;
+        }
+    }
+
+    void discard() {
+        requeue = false;
+    }
+
+    void record(String sql, long start, long rows) {
+        pool.getQueryMetrics().record(sql, System.nanoTime() - start, rows);
+    }
+
+    private static String insertSql(String tableName, List<String> colNames, int rowCount) {
+        String values = "(" + String.join(",", Collections.nCopies(colNames.size(), "?")) + ")";
+        return String.format("INSERT INTO %s (%s) VALUES %s",
+                tableName,
+                String.join(",", colNames),
+                rowCount == 1 ? values : String.join(",", Collections.nCopies(rowCount, values)));
+    }
+
+    private static String onDuplicateKeyUpdate(List<String> colNames, Collection<String> updateColumns) {
+        List<String> updates = new ArrayList<>();
+        for (String colName : colNames) {
+            if (updateColumns == null || updateColumns.contains(colName)) {
+                updates.add(String.format("%1$s = VALUES(%1$s)", colName));
+            }
+        }
+        if (updates.isEmpty()) { // nothing to overwrite, keep the existing row
+            updates.add(String.format("%1$s = %1$s", colNames.get(0)));
+        }
+        return " ON DUPLICATE KEY UPDATE " + String.join(",", updates);
+    }
+
+    private static Collection<List<Integer>> groupByColumns(List<Map<String, Object>> rows) {
+        // row indexes grouped by column set, in order of first appearance
+        Map<Set<String>, List<Integer>> groups = new LinkedHashMap<>();
+        for (int i = 0; i < rows.size(); i++) {
+            groups.computeIfAbsent(rows.get(i).keySet(), k -> new ArrayList<>()).add(i);
+        }
+        return groups.values();
+    }
+
+    /**
+     * Adds the values of the next multi-row chunk of group, starting at from, to colVals and returns
+     * where the chunk ends. Chunks stay under MAX_PARAMETERS, batchSize rows and batchMaxBytes.
+     */
+    private int nextChunk(List<Map<String, Object>> rows, List<Integer> group, List<String> colNames,
+                          int from, List<Object> colVals) {
+        int maxRows = Math.max(1, Math.min(pool.getBatchSize(), MAX_PARAMETERS / Math.max(1, colNames.size())));
+        long bytes = 0;
+        int to = from;
+        while (to < group.size() && to - from < maxRows && (to == from || bytes < pool.getBatchMaxBytes())) {
+            Map<String, Object> row = rows.get(group.get(to));
+            for (String colName : colNames) {
+                Object val = row.get(colName);
+                colVals.add(val);
+                bytes += estimateSize(val);
+            }
+            to++;
+        }
+        return to;
+    }
+
+    private static long estimateSize(Object val) {
+        if (val == null) {
+            return 4;
+        } else if (val instanceof CharSequence) {
+            return ((CharSequence) val).length() * 3L + 2; // worst case utf8 plus quotes
+        } else if (val instanceof byte[]) {
+            return ((byte[]) val).length * 2L + 3;
+        }
+        return 24;
+    }
+
+    public StatementCache getStatementCache() throws SQLException {
+        connection();
+        return pooled.getStatementCache();
+    }
+
     //---------------------------------------------------
 
     public void rollback() throws SQLException {
-        conn.rollback();
+        connection().rollback();
+        invalidateUncommitted();
     }
 
     public void commit() throws SQLException {
-        conn.commit();
+        connection().commit();
+        invalidateUncommitted();
+    }
+
+    private void invalidateUncommitted() {
+        // either way the rows changed back or for good, so anything cached meanwhile is stale
+        if (uncommittedWrites != null) {
+            for (String sql : uncommittedWrites) {
+                if (queryCache != null) {
+                    queryCache.invalidate(sql);
+                }
+                if (rowCache != null) {
+                    rowCache.invalidate(sql);
+                }
+            }
+            uncommittedWrites = null;
+        }
     }
 
     @Override
     public void close() throws SQLException {
-        pool.putConnection(conn, requeue);
-        conn = null;
+        closed = true;
+        if (pooled == null) {
+            return; // already closed or never used
+        }
+        try {
+            pool.putConnection(pooled, requeue); // rolls back whatever wasn't committed
+        } finally {
+            pooled = null;
+            conn = null;
+            invalidateUncommitted();
+        }
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,254 @@
+package library;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+/**
+ * Copies the rows of a query on one DataSource into a table on another. A reader thread
+ * streams the source into batches, writer threads insert them, and a bounded queue between
+ * them holds the reader back when the writers fall behind.
+ * <p>
+ * Each writer commits every commitInterval batches, so a failed copy leaves the batches
+ * committed before the failure in place.
+ */
+public class DataCopy {
+
+    private static final Logger LOG = Logger.getLogger(DataCopy.class.getName());
+    private static final List<Map<String, Object>> END = Collections.emptyList();
+    private static final long POLL_MILLIS = 100;
+
+    private DataSource source;
+    private String sql;
+    private List<Object> vals;
+    private DataSource destination;
+    private String tableName;
+
+    private int batchSize;
+    private int writers = 2;
+    private int queueSize = 0; // batches, 0 means twice the number of writers
+    private int commitInterval = 10; // batches per commit, 0 commits every batch on its own
+    private long progressInterval = 10000; // milliseconds
+
+    private final LongAdder rowsRead = new LongAdder();
+    private final LongAdder rowsWritten = new LongAdder();
+    private final AtomicReference<SQLException> failure = new AtomicReference<>();
+
+    public DataCopy(DataSource source, String sql, List<Object> vals, DataSource destination, String tableName) {
+        this.source = source;
+        this.sql = sql;
+        this.vals = vals;
+        this.destination = destination;
+        this.tableName = tableName;
+        this.batchSize = destination.getPool().getBatchSize();
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public void setWriters(int writers) {
+        this.writers = writers;
+    }
+
+    public void setQueueSize(int queueSize) {
+        this.queueSize = queueSize;
+    }
+
+    public void setCommitInterval(int commitInterval) {
+        this.commitInterval = commitInterval;
+    }
+
+    public void setProgressInterval(long progressInterval) {
+        this.progressInterval = progressInterval;
+    }
+
+    //---------------------------------------------------
+
+    /**
+     * Runs the copy on new threads and waits for it, logging rows/sec every progressInterval.
+     */
+    public Result run() throws SQLException {
+        BlockingQueue<List<Map<String, Object>>> queue =
+                new ArrayBlockingQueue<>(queueSize > 0 ? queueSize : Math.max(2, writers * 2));
+        long start = System.nanoTime();
+
+        List<Thread> threads = new ArrayList<>();
+        threads.add(new Thread(() -> read(queue), "DataCopy-reader"));
+        for (int i = 0; i < writers; i++) {
+            threads.add(new Thread(() -> write(queue), "DataCopy-writer-" + (i + 1)));
+        }
+        for (Thread thread : threads) {
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        try {
+            long lastReport = start;
+            long lastRows = 0;
+            for (Thread thread : threads) {
+                while (thread.isAlive()) {
+                    thread.join(Math.min(POLL_MILLIS, Math.max(1, progressInterval)));
+                    long now = System.nanoTime();
+                    if (progressInterval > 0 && now - lastReport >= progressInterval * 1_000_000L) {
+                        long rows = rowsWritten.sum();
+                        double rate = (rows - lastRows) * 1e9 / (now - lastReport);
+                        LOG.info(String.format("Copy into %s: %d rows read, %d written, %.0f rows/sec",
+                                tableName, rowsRead.sum(), rows, rate));
+                        lastReport = now;
+                        lastRows = rows;
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            fail(new SQLException("Interrupted copying into " + tableName, e));
+            for (Thread thread : threads) {
+                thread.interrupt();
+            }
+        }
+
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+        Result result = new Result(rowsRead.sum(), rowsWritten.sum(), System.nanoTime() - start);
+        LOG.info(String.format("Copy into %s finished: %d rows in %dms, %.0f rows/sec",
+                tableName, result.getRowsWritten(), result.getMillis(), result.getRowsPerSecond()));
+        return result;
+    }
+
+    private void read(BlockingQueue<List<Map<String, Object>>> queue) {
+        try (DataConnection conn = source.getConnection();
+             RowCursor cursor = conn.nativeStream(sql, vals)) {
+            List<Map<String, Object>> batch = new ArrayList<>(batchSize);
+            while (failure.get() == null && cursor.hasNext()) {
+                batch.add(cursor.next());
+                rowsRead.increment();
+                if (batch.size() >= batchSize) {
+                    if (!offer(queue, batch)) {
+                        return;
+                    }
+                    batch = new ArrayList<>(batchSize);
+                }
+            }
+            if (!batch.isEmpty() && !offer(queue, batch)) {
+                return;
+            }
+            for (int i = 0; i < writers; i++) {
+                if (!offer(queue, END)) {
+                    return;
+                }
+            }
+        } catch (UncheckedSQLException e) {
+            fail(e.getCause());
+        } catch (SQLException e) {
+            fail(e);
+        } catch (Throwable e) {
+            fail(new SQLException("Reader failed copying into " + tableName, e)); // or the writers wait forever
+        }
+    }
+
+    private boolean offer(BlockingQueue<List<Map<String, Object>>> queue, List<Map<String, Object>> batch) {
+        // blocks while the queue is full, which is what paces the reader
+        try {
+            while (failure.get() == null) {
+                if (queue.offer(batch, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                    return true;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            fail(new SQLException("Reader interrupted", e));
+        }
+        return false;
+    }
+
+    private void write(BlockingQueue<List<Map<String, Object>>> queue) {
+        try (DataConnection conn = destination.getConnection()) {
+            if (commitInterval > 0) {
+                conn.setAutoCommit(false); // uncommitted batches roll back when the connection is returned
+            }
+            int batches = 0;
+            long rows = 0;
+            while (failure.get() == null) {
+                List<Map<String, Object>> batch = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (batch == null) {
+                    continue;
+                }
+                if (batch == END) {
+                    break;
+                }
+                conn.insertRows(tableName, batch); // commits by itself under autocommit
+                if (commitInterval <= 0) {
+                    rowsWritten.add(batch.size());
+                    continue;
+                }
+                batches++;
+                rows += batch.size();
+                if (batches >= commitInterval) {
+                    conn.commit();
+                    rowsWritten.add(rows);
+                    batches = 0;
+                    rows = 0;
+                }
+            }
+            if (batches > 0 && failure.get() == null) {
+                conn.commit();
+                rowsWritten.add(rows);
+            }
+        } catch (SQLException e) {
+            fail(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            fail(new SQLException("Writer interrupted", e));
+        } catch (Throwable e) {
+            fail(new SQLException("Writer failed copying into " + tableName, e)); // or the reader blocks on a full queue
+        }
+    }
+
+    private void fail(SQLException e) {
+        if (!failure.compareAndSet(null, e)) {
+            failure.get().addSuppressed(e);
+        }
+    }
+
+    //---------------------------------------------------
+
+    public static class Result {
+
+        private final long rowsRead;
+        private final long rowsWritten;
+        private final long nanos;
+
+        Result(long rowsRead, long rowsWritten, long nanos) {
+            this.rowsRead = rowsRead;
+            this.rowsWritten = rowsWritten;
+            this.nanos = nanos;
+        }
+
+        public long getRowsRead() {
+            return rowsRead;
+        }
+
+        public long getRowsWritten() {
+            return rowsWritten;
+        }
+
+        public long getMillis() {
+            return nanos / 1_000_000;
+        }
+
+        public double getRowsPerSecond() {
+            return nanos == 0 ? 0 : rowsWritten * 1e9 / nanos;
+        }
+    }
+
+}
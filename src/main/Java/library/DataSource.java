@@ -6,11 +6,35 @@ import java.util.Properties;
 public class DataSource {
 
     private ConnectionPool pool;
+    private ReplicaSet replicas;
+    private QueryCache queryCache;
+    private RowCache rowCache;
+    private WriteBehind writeBehind;
 
     //------------------------------
 
     public DataSource(Properties properties) throws SQLException {
         this.pool = new ConnectionPool(properties);
+        String replicaDsns = properties.getProperty("datasource.replicas", "").trim();
+        if (!replicaDsns.isEmpty()) {
+            this.replicas = new ReplicaSet(properties, replicaDsns.split(","));
+        }
+        int queryCacheSize = Integer.parseInt(properties.getProperty("datasource.queryCache.size", "0"));
+        if (queryCacheSize > 0) {
+            int ttl = Integer.parseInt(properties.getProperty("datasource.queryCache.ttl", "60"));
+            this.queryCache = new QueryCache(queryCacheSize, ttl * 1000L);
+        }
+        int rowCacheSize = Integer.parseInt(properties.getProperty("datasource.rowCache.size", "0"));
+        if (rowCacheSize > 0) {
+            int ttl = Integer.parseInt(properties.getProperty("datasource.rowCache.ttl", "60"));
+            this.rowCache = new RowCache(rowCacheSize, ttl * 1000L);
+        }
+        int writeBehindRows = Integer.parseInt(properties.getProperty("datasource.writeBehind.maxRows", "0"));
+        if (writeBehindRows > 0) {
+            long maxDelay = Long.parseLong(properties.getProperty("datasource.writeBehind.maxDelay", "5")); // milliseconds
+            int queueSize = Integer.parseInt(properties.getProperty("datasource.writeBehind.queueSize", "10000"));
+            this.writeBehind = new WriteBehind(this, writeBehindRows, maxDelay, queueSize);
+        }
     }
 
     //------------------------------
@@ -19,8 +43,49 @@ public class DataSource {
         return pool;
     }
 
+    public QueryMetrics getQueryMetrics() {
+        return pool.getQueryMetrics();
+    }
+
+    public ReplicaSet getReplicas() {
+        return replicas;
+    }
+
+    public QueryCache getQueryCache() {
+        return queryCache;
+    }
+
+    public RowCache getRowCache() {
+        return rowCache;
+    }
+
+    /**
+     * Group commit queue for single row writes, null unless datasource.writeBehind.maxRows is set.
+     */
+    public WriteBehind getWriteBehind() {
+        return writeBehind;
+    }
+
     public DataConnection getConnection() throws SQLException {
-        return new DataConnection(this.pool);
+        DataConnection conn;
+        if (replicas != null) {
+            conn = new DataConnection(this.pool, this.replicas);
+        } else {
+            conn = new DataConnection(this.pool);
+        }
+        conn.setQueryCache(queryCache);
+        conn.setRowCache(rowCache);
+        return conn;
+    }
+
+    public void close() {
+        if (writeBehind != null) {
+            writeBehind.close(); // commits what is still queued
+        }
+        pool.close();
+        if (replicas != null) {
+            replicas.close();
+        }
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,183 @@
+package library;
+
+import annotations.Column;
+import annotations.Entity;
+import annotations.Id;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Reflection data for an @Entity class, resolved once per class and shared by every mapper.
+ */
+public class EntityMetadata<T> {
+
+    private static final Map<Class<?>, EntityMetadata<?>> CACHE = new ConcurrentHashMap<>();
+
+    private final Class<T> clazz;
+    private final Constructor<T> constructor;
+    private final String table;
+    private final Map<String, Field> fields = new LinkedHashMap<>(); // column name -> field, in declaration order
+    private String idColumn;
+
+    private EntityMetadata(Class<T> clazz) {
+        this.clazz = clazz;
+        try {
+            this.constructor = clazz.getDeclaredConstructor();
+            this.constructor.setAccessible(true);
+        } catch (NoSuchMethodException e) {
+            throw new IllegalArgumentException(clazz.getName() + " needs a no-arg constructor", e);
+        }
+        Entity entity = clazz.getAnnotation(Entity.class);
+        this.table = entity != null ? entity.table() : null;
+
+        for (Field field : clazz.getDeclaredFields()) {
+            Column col = field.getAnnotation(Column.class);
+            if (col != null) {
+                field.setAccessible(true);
+                fields.put(col.name(), field);
+                if (field.isAnnotationPresent(Id.class)) {
+                    idColumn = col.name();
+                }
+            }
+        }
+        if (idColumn == null && fields.containsKey("id")) {
+            idColumn = "id";
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <T> EntityMetadata<T> forClass(Class<T> clazz) {
+        return (EntityMetadata<T>) CACHE.computeIfAbsent(clazz, EntityMetadata::new);
+    }
+
+    public Class<T> getEntityClass() {
+        return clazz;
+    }
+
+    public String getTable() {
+        return table;
+    }
+
+    public String getIdColumn() {
+        return idColumn;
+    }
+
+    public Map<String, Field> getFields() {
+        return Collections.unmodifiableMap(fields);
+    }
+
+    public Field getField(String column) {
+        return fields.get(column);
+    }
+
+    //---------------------------------------------------
+
+    public T newInstance() throws SQLException {
+        try {
+            return constructor.newInstance();
+        } catch (IllegalAccessException | InstantiationException | InvocationTargetException e) {
+            throw new SQLException("Problem with data Mapping: cannot create " + clazz.getName(), e);
+        }
+    }
+
+    public void set(T dto, Field field, Object value) throws SQLException {
+        try {
+            field.set(dto, convert(value, field.getType()));
+        } catch (IllegalAccessException | IllegalArgumentException e) {
+            throw new SQLException(String.format("Problem with data Mapping: cannot set %s.%s from %s",
+                    clazz.getName(), field.getName(), value.getClass().getName()), e);
+        }
+    }
+
+    public Object get(T dto, Field field) throws SQLException {
+        try {
+            return field.get(dto);
+        } catch (IllegalAccessException e) {
+            throw new SQLException("Problem with data Mapping: cannot read " + field.getName(), e);
+        }
+    }
+
+    public Map<String, Object> toRow(T dto) throws SQLException {
+        // null fields are left out so the database can apply defaults (e.g. AUTO_INCREMENT ids)
+        Map<String, Object> row = new LinkedHashMap<>();
+        for (Map.Entry<String, Field> e : fields.entrySet()) {
+            Object value = get(dto, e.getValue());
+            if (value != null) {
+                row.put(e.getKey(), value);
+            }
+        }
+        return row;
+    }
+
+    /**
+     * Resolves, for each column of the result set, the field it maps to (or null).
+     */
+    public Field[] columnFields(ResultSetMetaData meta) throws SQLException {
+        Field[] byColumn = new Field[meta.getColumnCount()];
+        for (int i = 0; i < byColumn.length; i++) {
+            byColumn[i] = fields.get(meta.getColumnName(i + 1));
+        }
+        return byColumn;
+    }
+
+    public T read(ResultSet rs, Field[] byColumn) throws SQLException {
+        T dto = newInstance();
+        for (int i = 0; i < byColumn.length; i++) {
+            Field field = byColumn[i];
+            if (field == null) {
+                continue;
+            }
+            Object value = readColumn(rs, i + 1, field.getType());
+            if (value != null) { // Don't set DBNULL
+                set(dto, field, value);
+            }
+        }
+        return dto;
+    }
+
+    private static Object readColumn(ResultSet rs, int column, Class<?> type) throws SQLException {
+        Object value;
+        if (type == Long.class || type == long.class) {
+            value = rs.getLong(column);
+        } else if (type == Integer.class || type == int.class) {
+            value = rs.getInt(column);
+        } else if (type == Double.class || type == double.class) {
+            value = rs.getDouble(column);
+        } else if (type == Boolean.class || type == boolean.class) {
+            value = rs.getBoolean(column);
+        } else if (type == String.class) {
+            value = rs.getString(column);
+        } else if (type == BigDecimal.class) {
+            value = rs.getBigDecimal(column);
+        } else {
+            value = rs.getObject(column);
+        }
+        return rs.wasNull() ? null : value;
+    }
+
+    private static Object convert(Object value, Class<?> type) {
+        // drivers hand back the narrowest numeric type for a column, e.g. Integer for an INT id
+        if (value instanceof Number && !type.isInstance(value)) {
+            Number number = (Number) value;
+            if (type == Long.class || type == long.class) {
+                return number.longValue();
+            } else if (type == Integer.class || type == int.class) {
+                return number.intValue();
+            } else if (type == Double.class || type == double.class) {
+                return number.doubleValue();
+            } else if (type == BigDecimal.class) {
+                return new BigDecimal(number.toString());
+            }
+        }
+        return value;
+    }
+
+}
@@ -0,0 +1,120 @@
+package library;
+
+import javafx.util.Pair;
+
+import java.lang.reflect.Field;
+import java.sql.SQLException;
+import java.util.*;
+
+/**
+ * CRUD for an @Entity class. SQL is derived from the annotations once and only the
+ * mapped columns are selected. Every method has a variant taking an open DataConnection
+ * so calls can share a transaction.
+ */
+public class EntityRepository<T> {
+
+    private DataSource dataSource;
+    private EntityMetadata<T> metadata;
+    private String idColumn;
+    private String selectSql;
+    private String findByIdSql;
+    private DataMapper<T> mapper;
+
+    public EntityRepository(DataSource dataSource, Class<T> clazz) {
+        this.dataSource = dataSource;
+        this.metadata = EntityMetadata.forClass(clazz);
+        this.idColumn = metadata.getIdColumn();
+        this.mapper = new DataMapper<>(clazz);
+
+        String table = metadata.getTable();
+        if (table == null) {
+            throw new IllegalArgumentException(clazz.getName() + " is not annotated with @Entity");
+        }
+        if (idColumn == null) {
+            throw new IllegalArgumentException(clazz.getName() + " has no @Id column");
+        }
+
+        selectSql = String.format("SELECT %s FROM %s", String.join(",", metadata.getFields().keySet()), table);
+        findByIdSql = String.format("%s WHERE %s = ? LIMIT 1", selectSql, idColumn);
+    }
+
+    //---------------------------------------------------
+
+    public T findById(Object id) throws SQLException {
+        try (DataConnection conn = dataSource.getConnection()) {
+            return findById(conn, id);
+        }
+    }
+
+    public T findById(DataConnection conn, Object id) throws SQLException {
+        if (conn.getRowCache() != null) {
+            // served from the DataSource's row cache when possible
+            Map<String, Object> row = conn.selectRow(metadata.getTable(), new Pair<>(idColumn, id));
+            return row == null ? null : mapper.map(row);
+        }
+        List<T> rows = conn.nativeSelect(findByIdSql, Collections.singletonList(id), metadata.getEntityClass());
+        return rows.isEmpty() ? null : rows.get(0);
+    }
+
+    public List<T> findAll(String where, List<Object> vals) throws SQLException {
+        try (DataConnection conn = dataSource.getConnection()) {
+            return findAll(conn, where, vals);
+        }
+    }
+
+    public List<T> findAll(DataConnection conn, String where, List<Object> vals) throws SQLException {
+        String sql = where == null || where.isEmpty() ? selectSql : selectSql + " WHERE " + where;
+        return conn.nativeSelect(sql, vals, metadata.getEntityClass());
+    }
+
+    public List<T> findAll() throws SQLException {
+        return findAll(null, null);
+    }
+
+    public Long save(T entity) throws SQLException {
+        try (DataConnection conn = dataSource.getConnection()) {
+            return save(conn, entity);
+        }
+    }
+
+    public Long save(DataConnection conn, T entity) throws SQLException {
+        Long id = conn.insertRow(metadata.getTable(), metadata.toRow(entity));
+        Field idField = metadata.getField(idColumn);
+        if (id != null && id >= 0 && metadata.get(entity, idField) == null) {
+            metadata.set(entity, idField, id);
+        }
+        return id;
+    }
+
+    public boolean update(T entity) throws SQLException {
+        try (DataConnection conn = dataSource.getConnection()) {
+            return update(conn, entity);
+        }
+    }
+
+    public boolean update(DataConnection conn, T entity) throws SQLException {
+        // through updateRow/deleteRow so a row cache stays coherent; both reuse cached SQL
+        Map<String, Object> vals = new LinkedHashMap<>();
+        for (Map.Entry<String, Field> e : metadata.getFields().entrySet()) {
+            if (!e.getKey().equals(idColumn)) {
+                vals.put(e.getKey(), metadata.get(entity, e.getValue()));
+            }
+        }
+        return conn.updateRow(metadata.getTable(), new Pair<>(idColumn, idValue(entity)), vals);
+    }
+
+    public boolean delete(T entity) throws SQLException {
+        try (DataConnection conn = dataSource.getConnection()) {
+            return delete(conn, entity);
+        }
+    }
+
+    public boolean delete(DataConnection conn, T entity) throws SQLException {
+        return conn.deleteRow(metadata.getTable(), new Pair<>(idColumn, idValue(entity)));
+    }
+
+    private Object idValue(T entity) throws SQLException {
+        return metadata.get(entity, metadata.getField(idColumn));
+    }
+
+}
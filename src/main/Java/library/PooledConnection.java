@@ -0,0 +1,233 @@
+package library;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class PooledConnection {
+
+    static final int STATE_REMOVED = -1;
+    static final int STATE_IDLE = 0;
+    static final int STATE_IN_USE = 1;
+
+    private final Connection conn;
+    private final StatementCache statementCache;
+    private final AtomicInteger state = new AtomicInteger(STATE_IN_USE);
+    private final long createdAt;
+    private volatile long lastAccessed;
+    private volatile long lastValidated;
+
+    // leak detection, only set when the pool has a leak threshold
+    private final AtomicLong borrowedAt = new AtomicLong(); // 0 while not lent out
+    private volatile Throwable borrowSite;
+    private volatile boolean leakReported;
+
+    // session state as last set through this object, so the driver is only called on a change
+    private boolean readOnly = false;   // JDBC defaults for a new connection
+    private boolean autoCommit = true;
+    private Integer isolation;          // null until first changed
+    private Integer defaultIsolation;
+    private String catalog;
+    private String defaultCatalog;
+    private boolean catalogDirty;
+    private Connection tracked;
+
+    PooledConnection(Connection conn, int statementCacheSize) {
+        this.conn = conn;
+        this.statementCache = new StatementCache(statementCacheSize);
+        this.createdAt = System.currentTimeMillis();
+        this.lastAccessed = createdAt;
+        this.lastValidated = createdAt;
+    }
+
+    public Connection getConnection() {
+        return conn;
+    }
+
+    public StatementCache getStatementCache() {
+        return statementCache;
+    }
+
+    /**
+     * The connection as handed to callers: setters for tracked state go through this
+     * object so the local copy never goes stale.
+     */
+    public Connection getTrackedConnection() {
+        if (tracked == null) {
+            tracked = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                    new Class<?>[]{Connection.class}, (proxy, method, args) -> {
+                        if (method.getDeclaringClass() == Object.class) {
+                            switch (method.getName()) { // the proxy is its own object, not the physical connection
+                                case "equals":
+                                    return proxy == args[0];
+                                case "hashCode":
+                                    return System.identityHashCode(proxy);
+                                default:
+                                    return "Tracked " + conn;
+                            }
+                        }
+                        switch (method.getName()) {
+                            case "setReadOnly":
+                                setReadOnly((Boolean) args[0]);
+                                return null;
+                            case "setAutoCommit":
+                                setAutoCommit((Boolean) args[0]);
+                                return null;
+                            case "getAutoCommit":
+                                return getAutoCommit();
+                            case "setTransactionIsolation":
+                                setTransactionIsolation((Integer) args[0]);
+                                return null;
+                            case "setCatalog":
+                                setCatalog((String) args[0]);
+                                return null;
+                            default:
+                                try {
+                                    return method.invoke(conn, args);
+                                } catch (InvocationTargetException e) {
+                                    throw e.getCause();
+                                }
+                        }
+                    });
+        }
+        return tracked;
+    }
+
+    //---------------------------------------------------
+
+    public void setReadOnly(boolean readOnly) throws SQLException {
+        if (this.readOnly != readOnly) {
+            conn.setReadOnly(readOnly);
+            this.readOnly = readOnly;
+        }
+    }
+
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
+    public void setAutoCommit(boolean autoCommit) throws SQLException {
+        if (this.autoCommit != autoCommit) {
+            conn.setAutoCommit(autoCommit);
+            this.autoCommit = autoCommit;
+        }
+    }
+
+    public boolean getAutoCommit() {
+        return autoCommit;
+    }
+
+    public void setTransactionIsolation(int level) throws SQLException {
+        if (isolation == null) {
+            defaultIsolation = conn.getTransactionIsolation();
+            isolation = defaultIsolation;
+        }
+        if (isolation != level) {
+            conn.setTransactionIsolation(level);
+            isolation = level;
+        }
+    }
+
+    public void setCatalog(String catalog) throws SQLException {
+        if (!catalogDirty) {
+            defaultCatalog = conn.getCatalog();
+            this.catalog = defaultCatalog;
+            catalogDirty = true;
+        }
+        if (!Objects.equals(this.catalog, catalog)) {
+            conn.setCatalog(catalog);
+            this.catalog = catalog;
+        }
+    }
+
+    /**
+     * Puts back whatever session state a borrower changed. Read-only is left alone:
+     * every statement sets it to what it needs anyway.
+     */
+    void reset() throws SQLException {
+        if (!autoCommit) {
+            conn.rollback();
+            setAutoCommit(true); // default setting
+        }
+        if (isolation != null && !isolation.equals(defaultIsolation)) {
+            setTransactionIsolation(defaultIsolation);
+        }
+        if (catalogDirty && !Objects.equals(catalog, defaultCatalog)) {
+            setCatalog(defaultCatalog);
+        }
+    }
+
+    boolean reserve() {
+        return state.compareAndSet(STATE_IDLE, STATE_IN_USE);
+    }
+
+    void release() {
+        lastAccessed = System.currentTimeMillis();
+        lastValidated = lastAccessed; // it was in use up to now
+        state.set(STATE_IDLE);
+    }
+
+    void unreserve() {
+        // back to idle without counting as use, e.g. after a keepalive ping
+        state.set(STATE_IDLE);
+    }
+
+    void borrowed(long now, Throwable site) {
+        borrowSite = site;
+        leakReported = false;
+        borrowedAt.set(now);
+    }
+
+    /**
+     * Ends a loan; false if the pool had already taken the connection back as a leak.
+     */
+    boolean returned() {
+        return borrowedAt.getAndSet(0) != 0;
+    }
+
+    long heldMillis(long now) {
+        long at = borrowedAt.get();
+        return at == 0 ? 0 : now - at;
+    }
+
+    Throwable getBorrowSite() {
+        return borrowSite;
+    }
+
+    boolean isLeakReported() {
+        return leakReported;
+    }
+
+    void leakReported() {
+        leakReported = true;
+    }
+
+    void validated() {
+        lastValidated = System.currentTimeMillis();
+    }
+
+    boolean remove() {
+        return state.getAndSet(STATE_REMOVED) != STATE_REMOVED;
+    }
+
+    long idleMillis(long now) {
+        return now - lastAccessed;
+    }
+
+    long unvalidatedMillis(long now) {
+        return now - lastValidated;
+    }
+
+    long ageMillis(long now) {
+        return now - createdAt;
+    }
+
+    boolean isIdle() {
+        return state.get() == STATE_IDLE;
+    }
+
+}
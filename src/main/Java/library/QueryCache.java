@@ -0,0 +1,255 @@
+package library;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Opt-in cache of query results keyed on SQL plus parameters, bounded by size (LRU) and TTL.
+ * Every table has a version number that writes through the owning DataSource bump;
+ * an entry is stale once any table it read from has moved on.
+ */
+public class QueryCache {
+
+    private static final Pattern JOIN_TABLE = Pattern.compile("(?i)\\bJOIN\\s+([`\\w.]+)");
+    // the whole FROM list up to the next clause; a lookahead so nested subqueries are still found
+    private static final Pattern FROM_LIST = Pattern.compile(
+            "(?is)\\bFROM\\s+(?=(.+?)(?:\\b(?:WHERE|GROUP|ORDER|LIMIT|HAVING|JOIN|INNER|LEFT|RIGHT|CROSS|NATURAL"
+                    + "|STRAIGHT_JOIN|UNION|FOR|LOCK|WINDOW)\\b|\\)|;|$))");
+    private static final Pattern TABLE_NAME = Pattern.compile("^[`\\w.]+");
+    private static final Pattern WRITE_TABLE = Pattern.compile(
+            "(?i)^\\s*(?:INSERT\\s+(?:IGNORE\\s+)?INTO|REPLACE\\s+INTO|UPDATE(?:\\s+IGNORE)?|DELETE\\s+FROM)\\s+([`\\w.]+)");
+    private static final int MAX_PARSED = 1024;
+    private static final String[] UNKNOWN = new String[0]; // write whose table could not be worked out
+
+    private final int maxEntries;
+    private final long ttlMillis;
+    private final LinkedHashMap<Key, CachedResult> entries;
+    private final Map<String, AtomicLong> versions = new ConcurrentHashMap<>();
+    private final AtomicLong globalVersion = new AtomicLong();
+    private final Map<String, String[]> parsed = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public QueryCache(int maxEntries, long ttlMillis) {
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttlMillis;
+        this.entries = new LinkedHashMap<Key, CachedResult>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, CachedResult> eldest) {
+                if (size() > QueryCache.this.maxEntries) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public Object get(String sql, List<Object> vals) {
+        Key key = new Key(sql, vals);
+        CachedResult entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+        }
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        if (System.currentTimeMillis() > entry.expires || !isCurrent(entry)) {
+            synchronized (entries) {
+                entries.remove(key, entry);
+            }
+            invalidations.incrementAndGet();
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return entry.value;
+    }
+
+    /**
+     * Takes the table versions a query is about to read; pass them to put() once it has run,
+     * so a write that lands while the query runs makes the new entry stale straight away.
+     */
+    public long[] snapshot(String sql) {
+        String[] tables = readTables(sql);
+        long[] snapshot = new long[tables.length + 1];
+        snapshot[0] = globalVersion.get();
+        for (int i = 0; i < tables.length; i++) {
+            snapshot[i + 1] = version(tables[i]).get();
+        }
+        return snapshot;
+    }
+
+    public void put(String sql, List<Object> vals, Object value, long[] snapshot) {
+        CachedResult entry = new CachedResult(value, readTables(sql), snapshot, System.currentTimeMillis() + ttlMillis);
+        synchronized (entries) {
+            entries.put(new Key(sql, vals), entry);
+        }
+    }
+
+    public void invalidate(String writeSql) {
+        String[] tables = parsed.get(writeSql);
+        if (tables == null) {
+            String table = writeTable(writeSql);
+            tables = table == null ? UNKNOWN : new String[]{table};
+            remember(writeSql, tables);
+        }
+        if (tables == UNKNOWN) {
+            globalVersion.incrementAndGet();
+        } else {
+            invalidateTable(tables[0]);
+        }
+    }
+
+    public void invalidateAll() {
+        globalVersion.incrementAndGet();
+    }
+
+    /**
+     * The table an INSERT, REPLACE, UPDATE or DELETE writes to, or null if it can't be worked out.
+     */
+    public static String writeTable(String writeSql) {
+        Matcher m = WRITE_TABLE.matcher(writeSql);
+        return m.find() ? normalise(m.group(1)) : null;
+    }
+
+    public void invalidateTable(String tableName) {
+        version(normalise(tableName)).incrementAndGet();
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    //---------------------------------------------------
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getInvalidations() {
+        return invalidations.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public double getHitRate() {
+        long total = hits.get() + misses.get();
+        return total == 0 ? 0 : (double) hits.get() / total;
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    //---------------------------------------------------
+
+    private boolean isCurrent(CachedResult entry) {
+        if (entry.versions[0] != globalVersion.get()) {
+            return false;
+        }
+        for (int i = 0; i < entry.tables.length; i++) {
+            if (entry.versions[i + 1] != version(entry.tables[i]).get()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private AtomicLong version(String table) {
+        return versions.computeIfAbsent(table, t -> new AtomicLong());
+    }
+
+    private String[] readTables(String sql) {
+        String[] tables = parsed.get(sql);
+        if (tables == null) {
+            Set<String> found = new LinkedHashSet<>();
+            Matcher m = FROM_LIST.matcher(sql);
+            while (m.find()) {
+                for (String item : m.group(1).split(",")) { // FROM a, b x, c AS y
+                    Matcher name = TABLE_NAME.matcher(item.trim());
+                    if (name.find()) { // a derived table's "(" doesn't match, its own FROM is found separately
+                        found.add(normalise(name.group()));
+                    }
+                }
+            }
+            m = JOIN_TABLE.matcher(sql);
+            while (m.find()) {
+                found.add(normalise(m.group(1)));
+            }
+            tables = found.toArray(new String[0]);
+            remember(sql, tables);
+        }
+        return tables;
+    }
+
+    private void remember(String sql, String[] tables) {
+        if (parsed.size() >= MAX_PARSED) {
+            parsed.clear(); // cheap to rebuild
+        }
+        parsed.put(sql, tables);
+    }
+
+    static String normalise(String table) {
+        String name = table.replace("`", "");
+        int dot = name.lastIndexOf('.');
+        return (dot >= 0 ? name.substring(dot + 1) : name).toLowerCase(Locale.ROOT);
+    }
+
+    private static final class Key {
+
+        private final String sql;
+        private final List<Object> vals;
+
+        Key(String sql, List<Object> vals) {
+            this.sql = sql;
+            this.vals = vals == null ? Collections.emptyList() : new ArrayList<>(vals);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return sql.equals(key.sql) && vals.equals(key.vals);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * sql.hashCode() + vals.hashCode();
+        }
+    }
+
+    private static final class CachedResult {
+
+        private final Object value;
+        private final String[] tables;
+        private final long[] versions;
+        private final long expires;
+
+        CachedResult(Object value, String[] tables, long[] versions, long expires) {
+            this.value = value;
+            this.tables = tables;
+            this.versions = versions;
+            this.expires = expires;
+        }
+    }
+
+}
@@ -0,0 +1,163 @@
+package library;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+/**
+ * Latency and row counts per SQL fingerprint (the statement with literals replaced by ?),
+ * plus a slow-query log.
+ */
+public class QueryMetrics implements QueryMetricsMXBean {
+
+    private static final Logger LOG = Logger.getLogger(QueryMetrics.class.getName());
+    private static final Pattern STRING_LITERAL = Pattern.compile("'(?:[^'\\\\]|\\\\.)*'");
+    private static final Pattern NUMBER_LITERAL = Pattern.compile("\\b\\d+(?:\\.\\d+)?\\b");
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+    private static final int MAX_FINGERPRINTS = 1000;
+    private static final String OTHER = "<other>";
+
+    private final ConcurrentHashMap<String, Stats> stats = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, String> fingerprints = new ConcurrentHashMap<>();
+    private final LongAdder queries = new LongAdder();
+    private final LongAdder slowQueries = new LongAdder();
+    private volatile long slowQueryThresholdMillis;
+
+    public QueryMetrics(long slowQueryThresholdMillis) {
+        this.slowQueryThresholdMillis = slowQueryThresholdMillis;
+    }
+
+    public void record(String sql, long nanos, long rows) {
+        queries.increment();
+        String fingerprint = fingerprint(sql);
+        Stats s = stats.get(fingerprint);
+        if (s == null) {
+            String key = stats.size() < MAX_FINGERPRINTS ? fingerprint : OTHER; // stay bounded
+            s = stats.computeIfAbsent(key, k -> new Stats());
+        }
+        s.latency.record(nanos);
+        if (rows > 0) {
+            s.rows.add(rows);
+        }
+        if (slowQueryThresholdMillis > 0 && nanos >= slowQueryThresholdMillis * 1_000_000L) {
+            slowQueries.increment();
+            LOG.warning(String.format("Slow query (%.1f ms, %d rows): %s", nanos / 1e6, rows, sql));
+        }
+    }
+
+    public static String normalise(String sql) {
+        String fp = STRING_LITERAL.matcher(sql).replaceAll("?");
+        fp = NUMBER_LITERAL.matcher(fp).replaceAll("?");
+        return WHITESPACE.matcher(fp).replaceAll(" ").trim();
+    }
+
+    private String fingerprint(String sql) {
+        String fp = fingerprints.get(sql);
+        if (fp == null) {
+            fp = normalise(sql);
+            if (fingerprints.size() >= MAX_FINGERPRINTS * 4) {
+                fingerprints.clear(); // raw SQL with inlined literals; cheap to rebuild
+            }
+            fingerprints.put(sql, fp);
+        }
+        return fp;
+    }
+
+    //---------------------------------------------------
+
+    @Override
+    public long getQueryCount() {
+        return queries.sum();
+    }
+
+    @Override
+    public long getSlowQueryCount() {
+        return slowQueries.sum();
+    }
+
+    @Override
+    public long getSlowQueryThresholdMillis() {
+        return slowQueryThresholdMillis;
+    }
+
+    @Override
+    public void setSlowQueryThresholdMillis(long millis) {
+        this.slowQueryThresholdMillis = millis;
+    }
+
+    @Override
+    public List<QueryStats> getQueryStats() {
+        List<QueryStats> list = new ArrayList<>(stats.size());
+        for (Map.Entry<String, Stats> e : stats.entrySet()) {
+            Histogram h = e.getValue().latency;
+            list.add(new QueryStats(e.getKey(), h.getCount(), e.getValue().rows.sum(),
+                    h.getMeanMillis(), h.percentileMillis(99), h.getMaxMillis()));
+        }
+        list.sort((a, b) -> Double.compare(b.getMeanMillis() * b.getCount(), a.getMeanMillis() * a.getCount()));
+        return list;
+    }
+
+    @Override
+    public void reset() {
+        stats.clear();
+        queries.reset();
+        slowQueries.reset();
+    }
+
+    private static final class Stats {
+        private final Histogram latency = new Histogram();
+        private final LongAdder rows = new LongAdder();
+    }
+
+    public static final class QueryStats {
+
+        private final String sql;
+        private final long count;
+        private final long rows;
+        private final double meanMillis;
+        private final double p99Millis;
+        private final double maxMillis;
+
+        public QueryStats(String sql, long count, long rows, double meanMillis, double p99Millis, double maxMillis) {
+            this.sql = sql;
+            this.count = count;
+            this.rows = rows;
+            this.meanMillis = meanMillis;
+            this.p99Millis = p99Millis;
+            this.maxMillis = maxMillis;
+        }
+
+        public String getSql() {
+            return sql;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getRows() {
+            return rows;
+        }
+
+        public double getMeanMillis() {
+            return meanMillis;
+        }
+
+        public double getP99Millis() {
+            return p99Millis;
+        }
+
+        public double getMaxMillis() {
+            return maxMillis;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s count=%d rows=%d mean=%.2fms p99=%.2fms max=%.2fms",
+                    sql, count, rows, meanMillis, p99Millis, maxMillis);
+        }
+    }
+
+}
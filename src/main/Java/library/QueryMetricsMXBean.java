@@ -0,0 +1,19 @@
+package library;
+
+import java.util.List;
+
+public interface QueryMetricsMXBean {
+
+    long getQueryCount();
+
+    long getSlowQueryCount();
+
+    long getSlowQueryThresholdMillis();
+
+    void setSlowQueryThresholdMillis(long millis);
+
+    List<QueryMetrics.QueryStats> getQueryStats();
+
+    void reset();
+
+}
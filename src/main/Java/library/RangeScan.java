@@ -0,0 +1,227 @@
+package library;
+
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Scans a whole table in parallel. The numeric primary key is split into ranges, and
+ * worker threads, each on its own pooled connection, page through the ranges with keyset
+ * pagination (WHERE id > last ... ORDER BY id LIMIT n), so no page costs more than the last.
+ * <p>
+ * Ranges are equal slices of MIN..MAX by default. There are more ranges than workers, so
+ * a dense range doesn't hold up the scan. For badly skewed keys, sampled boundaries split
+ * the rows evenly instead, at the cost of a COUNT up front and one probe per range, each
+ * skipping one range's rows from the previous boundary.
+ * <p>
+ * By default half the pool's connections scan, leaving the rest for other work.
+ */
+public class RangeScan {
+
+    private DataSource dataSource;
+    private String tableName;
+    private String idColumn;
+    private String columns = "*";
+    private String where;
+    private List<Object> whereVals = Collections.emptyList();
+    private int pageSize = 1000;
+    private int parallelism;
+    private int splits = 0; // 0 means four per worker
+    private boolean sampledBoundaries = false;
+
+    public RangeScan(DataSource dataSource, String tableName, String idColumn) {
+        this.dataSource = dataSource;
+        this.tableName = tableName;
+        this.idColumn = idColumn;
+        this.parallelism = Math.max(1, dataSource.getPool().getMaxPoolSize() / 2);
+    }
+
+    public void setColumns(String columns) {
+        // the id column has to be selected, the next page starts after the last id seen
+        if (!columns.trim().equals("*") && !Arrays.asList(columns.replace(" ", "").split(",")).contains(idColumn)) {
+            throw new IllegalArgumentException("Columns must include " + idColumn);
+        }
+        this.columns = columns;
+    }
+
+    public void setWhere(String where, List<Object> vals) {
+        this.where = where;
+        this.whereVals = vals == null ? Collections.emptyList() : vals;
+    }
+
+    public void setPageSize(int pageSize) {
+        this.pageSize = pageSize;
+    }
+
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    public void setSplits(int splits) {
+        this.splits = splits;
+    }
+
+    public void setSampledBoundaries(boolean sampledBoundaries) {
+        this.sampledBoundaries = sampledBoundaries;
+    }
+
+    //---------------------------------------------------
+
+    /**
+     * Passes every row to the consumer, which is called from several threads at once.
+     * Returns the number of rows.
+     */
+    public long forEach(SqlConsumer<Map<String, Object>> consumer) throws SQLException {
+        return forEachPage(page -> {
+            for (Map<String, Object> row : page) {
+                consumer.accept(row);
+            }
+        });
+    }
+
+    /**
+     * Passes each page of up to pageSize rows, in key order within its range, to the
+     * consumer, which is called from several threads at once. Returns the number of rows.
+     */
+    public long forEachPage(SqlConsumer<List<Map<String, Object>>> consumer) throws SQLException {
+        long[] bounds = boundaries();
+        if (bounds.length < 2) {
+            return 0; // empty table
+        }
+        Queue<long[]> ranges = new ConcurrentLinkedQueue<>();
+        for (int i = 0; i + 1 < bounds.length; i++) {
+            ranges.add(new long[]{bounds[i], bounds[i + 1]});
+        }
+
+        String filter = where == null || where.isEmpty() ? "" : " AND (" + where + ")";
+        String sql = String.format("SELECT %s FROM %s WHERE %s > ? AND %s <= ?%s ORDER BY %s LIMIT %d",
+                columns, tableName, idColumn, idColumn, filter, idColumn, pageSize);
+
+        LongAdder rows = new LongAdder();
+        AtomicReference<SQLException> failure = new AtomicReference<>();
+        int workers = Math.max(1, Math.min(parallelism, ranges.size()));
+        AtomicInteger count = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(workers, r -> {
+            Thread thread = new Thread(r, "RangeScan-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        List<Future<?>> futures = new ArrayList<>(workers);
+        try {
+            for (int i = 0; i < workers; i++) {
+                futures.add(executor.submit(() -> {
+                    try (DataConnection conn = dataSource.getConnection()) {
+                        long[] range;
+                        while (failure.get() == null && (range = ranges.poll()) != null) {
+                            scanRange(conn, sql, range, consumer, rows, failure);
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    SQLException cause = e.getCause() instanceof SQLException
+                            ? (SQLException) e.getCause() : new SQLException(e.getCause());
+                    if (!failure.compareAndSet(null, cause) && failure.get() != cause) {
+                        failure.get().addSuppressed(cause);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted scanning " + tableName, e);
+        } finally {
+            executor.shutdownNow();
+        }
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+        return rows.sum();
+    }
+
+    private void scanRange(DataConnection conn, String sql, long[] range, SqlConsumer<List<Map<String, Object>>> consumer,
+                           LongAdder rows, AtomicReference<SQLException> failure) throws SQLException {
+        long last = range[0];
+        List<Object> vals = new ArrayList<>(whereVals.size() + 2);
+        while (failure.get() == null) {
+            vals.clear();
+            vals.add(last);
+            vals.add(range[1]);
+            vals.addAll(whereVals);
+            List<Map<String, Object>> page = conn.nativeSelect(sql, vals);
+            if (page.isEmpty()) {
+                return;
+            }
+            consumer.accept(page);
+            rows.add(page.size());
+            if (page.size() < pageSize) {
+                return;
+            }
+            last = ((Number) page.get(page.size() - 1).get(idColumn)).longValue();
+        }
+    }
+
+    /**
+     * Ascending bounds, each range runs from one bound (exclusive) to the next (inclusive).
+     */
+    private long[] boundaries() throws SQLException {
+        int ranges = splits > 0 ? splits : Math.max(1, parallelism * 4);
+        String filter = where == null || where.isEmpty() ? "" : " WHERE " + where;
+        try (DataConnection conn = dataSource.getConnection()) {
+            List<Object> span = new ArrayList<>(conn.nativeSelect(String.format("SELECT MIN(%s), MAX(%s) FROM %s%s",
+                    idColumn, idColumn, tableName, filter), whereVals).get(0).values());
+            if (span.get(0) == null) {
+                return new long[0];
+            }
+            long lo = ((Number) span.get(0)).longValue() - 1;
+            long hi = ((Number) span.get(1)).longValue();
+
+            TreeSet<Long> bounds = new TreeSet<>();
+            bounds.add(lo);
+            bounds.add(hi);
+            if (sampledBoundaries) {
+                long total = ((Number) conn.scalar(String.format("SELECT COUNT(*) FROM %s%s", tableName, filter), whereVals)).longValue();
+                long step = Math.max(1, total / ranges);
+                // each probe starts at the previous boundary, so the index is walked once overall
+                String next = String.format("SELECT %s FROM %s WHERE %s > ?%s ORDER BY %s LIMIT 1 OFFSET %d",
+                        idColumn, tableName, idColumn, where == null || where.isEmpty() ? "" : " AND (" + where + ")",
+                        idColumn, step - 1);
+                long prev = lo;
+                List<Object> vals = new ArrayList<>(whereVals.size() + 1);
+                for (int i = 1; i < ranges; i++) {
+                    vals.clear();
+                    vals.add(prev);
+                    vals.addAll(whereVals);
+                    List<Map<String, Object>> found = conn.nativeSelect(next, vals);
+                    if (found.isEmpty()) {
+                        break; // fewer rows than ranges, or rows deleted since the COUNT
+                    }
+                    prev = ((Number) found.get(0).values().iterator().next()).longValue();
+                    bounds.add(prev);
+                }
+            } else {
+                double width = ((double) hi - lo) / ranges;
+                for (int i = 1; i < ranges; i++) {
+                    bounds.add(lo + (long) (width * i));
+                }
+            }
+            long[] result = new long[bounds.size()];
+            int i = 0;
+            for (Long bound : bounds) {
+                result[i++] = bound;
+            }
+            return result;
+        }
+    }
+
+}
@@ -0,0 +1,70 @@
+package library;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Read replicas of a DataSource, each with its own pool. Reads go to the replica
+ * with the fewest requests in flight.
+ */
+public class ReplicaSet {
+
+    private List<ConnectionPool> pools = new ArrayList<>();
+    private List<AtomicInteger> inFlight = new ArrayList<>();
+    private AtomicInteger next = new AtomicInteger(); // rotates the start so ties spread evenly
+
+    public ReplicaSet(Properties properties, String[] dsns) throws SQLException {
+        for (String dsn : dsns) {
+            Properties replica = new Properties();
+            replica.putAll(properties);
+            replica.setProperty("datasource.dsn", dsn.trim());
+            pools.add(new ConnectionPool(replica));
+            inFlight.add(new AtomicInteger());
+        }
+    }
+
+    public List<ConnectionPool> getPools() {
+        return pools;
+    }
+
+    public int size() {
+        return pools.size();
+    }
+
+    public <R> R read(SqlFunction<DataConnection, R> query) throws SQLException {
+        int replica = leastInFlight();
+        AtomicInteger counter = inFlight.get(replica);
+        counter.incrementAndGet();
+        try (DataConnection conn = new DataConnection(pools.get(replica))) {
+            return query.apply(conn);
+        } finally {
+            counter.decrementAndGet();
+        }
+    }
+
+    private int leastInFlight() {
+        int size = pools.size();
+        int start = Math.abs(next.getAndIncrement() % size);
+        int best = start;
+        int bestCount = Integer.MAX_VALUE;
+        for (int i = 0; i < size; i++) {
+            int candidate = (start + i) % size;
+            int count = inFlight.get(candidate).get();
+            if (count < bestCount) {
+                best = candidate;
+                bestCount = count;
+            }
+        }
+        return best;
+    }
+
+    public void close() {
+        for (ConnectionPool pool : pools) {
+            pool.close();
+        }
+    }
+
+}
@@ -0,0 +1,201 @@
+package library;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A result row stored as a plain value array behind a shared RowSchema.
+ * Behaves like an ordered, mutable Map; keys outside the schema go to a
+ * small overflow map that is only created when needed.
+ */
+public class Row extends AbstractMap<String, Object> {
+
+    private static final Object ABSENT = new Object(); // marks a removed column
+
+    private final RowSchema schema;
+    private final Object[] values;
+    private Map<String, Object> extra;
+    private int removed;
+
+    Row(RowSchema schema, Object[] values) {
+        this.schema = schema;
+        this.values = values;
+    }
+
+    public Object get(int slot) {
+        Object value = values[slot];
+        return value == ABSENT ? null : value;
+    }
+
+    @Override
+    public Object get(Object key) {
+        int slot = schema.indexOf(key);
+        if (slot >= 0) {
+            return get(slot);
+        }
+        return extra == null ? null : extra.get(key);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        int slot = schema.indexOf(key);
+        if (slot >= 0) {
+            return values[slot] != ABSENT;
+        }
+        return extra != null && extra.containsKey(key);
+    }
+
+    @Override
+    public Object put(String key, Object value) {
+        int slot = schema.indexOf(key);
+        if (slot >= 0) {
+            Object old = values[slot];
+            values[slot] = value;
+            if (old == ABSENT) {
+                removed--;
+                return null;
+            }
+            return old;
+        }
+        if (extra == null) {
+            extra = new LinkedHashMap<>();
+        }
+        return extra.put(key, value);
+    }
+
+    @Override
+    public Object remove(Object key) {
+        int slot = schema.indexOf(key);
+        if (slot >= 0) {
+            return removeSlot(slot);
+        }
+        return extra == null ? null : extra.remove(key);
+    }
+
+    @Override
+    public int size() {
+        return values.length - removed + (extra == null ? 0 : extra.size());
+    }
+
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+        return new AbstractSet<Entry<String, Object>>() {
+            @Override
+            public Iterator<Entry<String, Object>> iterator() {
+                return new EntryIterator();
+            }
+
+            @Override
+            public int size() {
+                return Row.this.size();
+            }
+        };
+    }
+
+    private Object removeSlot(int slot) {
+        Object old = values[slot];
+        if (old == ABSENT) {
+            return null;
+        }
+        values[slot] = ABSENT;
+        removed++;
+        return old;
+    }
+
+    private class EntryIterator implements Iterator<Entry<String, Object>> {
+
+        private int next = 0;
+        private int last = -1;
+        private Iterator<Entry<String, Object>> extraIt;
+
+        @Override
+        public boolean hasNext() {
+            while (next < values.length && values[next] == ABSENT) {
+                next++;
+            }
+            if (next < values.length) {
+                return true;
+            }
+            if (extraIt == null && extra != null) {
+                extraIt = extra.entrySet().iterator();
+            }
+            return extraIt != null && extraIt.hasNext();
+        }
+
+        @Override
+        public Entry<String, Object> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            if (next < values.length) {
+                last = next++;
+                return new SlotEntry(last);
+            }
+            last = -1;
+            return extraIt.next();
+        }
+
+        @Override
+        public void remove() {
+            if (last >= 0) {
+                removeSlot(last);
+                last = -1;
+            } else if (extraIt != null) {
+                extraIt.remove();
+            } else {
+                throw new IllegalStateException();
+            }
+        }
+    }
+
+    private class SlotEntry implements Entry<String, Object> {
+
+        private final int slot;
+
+        SlotEntry(int slot) {
+            this.slot = slot;
+        }
+
+        @Override
+        public String getKey() {
+            return schema.name(slot);
+        }
+
+        @Override
+        public Object getValue() {
+            return Row.this.get(slot);
+        }
+
+        @Override
+        public Object setValue(Object value) {
+            Object old = Row.this.get(slot);
+            values[slot] = value;
+            return old;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Entry)) return false;
+            Entry<?, ?> e = (Entry<?, ?>) o;
+            Object value = getValue();
+            return getKey().equals(e.getKey()) && (value == null ? e.getValue() == null : value.equals(e.getValue()));
+        }
+
+        @Override
+        public int hashCode() {
+            Object value = getValue();
+            return getKey().hashCode() ^ (value == null ? 0 : value.hashCode());
+        }
+
+        @Override
+        public String toString() {
+            return getKey() + "=" + getValue();
+        }
+    }
+
+}
@@ -0,0 +1,229 @@
+package library;
+
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Rows by primary key, shared by every connection of a DataSource. selectRow fills it,
+ * updateRow and deleteRow write through, and concurrent misses for one key share a
+ * single query. Any other write to a table drops that table's rows, and so does a write
+ * through one key column for rows cached under another. Rows expire after ttlMillis in
+ * case the table is written by something else.
+ */
+public class RowCache {
+
+    private static final Pattern PLAIN_INSERT = Pattern.compile(
+            "(?is)^\\s*INSERT\\s+(?!.*\\bON\\s+DUPLICATE\\s+KEY\\b)");
+
+    private final int maxEntries;
+    private final long ttlMillis; // 0 never expires
+    private final ConcurrentHashMap<Key, CachedRow> rows = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Set<String>> idColumns = new ConcurrentHashMap<>(); // per table
+    private final ConcurrentHashMap<Key, CompletableFuture<Map<String, Object>>> loading = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, AtomicLong> tableWrites = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+
+    public RowCache(int maxEntries, long ttlMillis) {
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttlMillis;
+    }
+
+    public Map<String, Object> get(String tableName, String idColumn, Object id,
+                                   SqlFunction<Object, Map<String, Object>> loader) throws SQLException {
+        Key key = new Key(tableName, idColumn, id);
+        CachedRow cached = rows.get(key);
+        if (cached != null) {
+            if (!cached.isExpired(System.currentTimeMillis())) {
+                hits.incrementAndGet();
+                return new LinkedHashMap<>(cached.row); // callers may modify their copy
+            }
+            rows.remove(key, cached);
+        }
+        misses.incrementAndGet();
+
+        Map<String, Object> row;
+        CompletableFuture<Map<String, Object>> mine = new CompletableFuture<>();
+        CompletableFuture<Map<String, Object>> theirs = loading.putIfAbsent(key, mine);
+        if (theirs != null) {
+            coalesced.incrementAndGet();
+            return await(theirs);
+        }
+        try {
+            long writes = writes(key.tableName).get();
+            row = loader.apply(id);
+            if (row != null) {
+                store(key, row, writes);
+            }
+            mine.complete(row);
+        } catch (SQLException | RuntimeException e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            loading.remove(key, mine);
+        }
+        return row == null ? null : new LinkedHashMap<>(row);
+    }
+
+    public void updated(String tableName, String idColumn, Object id, Map<String, Object> vals) {
+        Key key = new Key(tableName, idColumn, id);
+        writes(key.tableName).incrementAndGet();
+        if (vals.containsKey(idColumn) && !new Key(tableName, idColumn, vals.get(idColumn)).equals(key)) {
+            rows.remove(key); // the row moved to another key, nothing is left under this one
+            removeOtherKeys(key);
+            return;
+        }
+        rows.computeIfPresent(key, (k, old) -> {
+            Map<String, Object> row = new LinkedHashMap<>(old.row);
+            row.putAll(vals);
+            return new CachedRow(Collections.unmodifiableMap(row), old.expires);
+        });
+        removeOtherKeys(key);
+    }
+
+    public void removed(String tableName, String idColumn, Object id) {
+        Key key = new Key(tableName, idColumn, id);
+        writes(key.tableName).incrementAndGet();
+        rows.remove(key);
+        removeOtherKeys(key);
+    }
+
+    private void removeOtherKeys(Key key) {
+        // the same row may be cached under another column, and which entry that is isn't known
+        Set<String> columns = idColumns.get(key.tableName);
+        if (columns != null && (columns.size() > 1 || !columns.contains(key.idColumn))) {
+            rows.keySet().removeIf(k -> k.tableName.equals(key.tableName) && !k.idColumn.equals(key.idColumn));
+        }
+    }
+
+    public void invalidate(String writeSql) {
+        if (PLAIN_INSERT.matcher(writeSql).find()) {
+            return; // adds rows, can't make a cached one stale
+        }
+        String table = QueryCache.writeTable(writeSql);
+        if (table == null) {
+            invalidateAll();
+            return;
+        }
+        writes(table).incrementAndGet();
+        rows.keySet().removeIf(key -> key.tableName.equals(table));
+    }
+
+    public void invalidateAll() {
+        for (AtomicLong counter : tableWrites.values()) {
+            counter.incrementAndGet();
+        }
+        rows.clear();
+    }
+
+    //---------------------------------------------------
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getCoalesced() {
+        return coalesced.get();
+    }
+
+    public int size() {
+        return rows.size();
+    }
+
+    //---------------------------------------------------
+
+    /**
+     * Caches the row unless the table was written since writes was read, when the row may be stale.
+     */
+    private void store(Key key, Map<String, Object> row, long writes) {
+        if (rows.size() >= maxEntries) {
+            // approximate bound: drop an arbitrary entry rather than track recency on every hit
+            Iterator<Key> it = rows.keySet().iterator();
+            if (it.hasNext()) {
+                it.next();
+                it.remove();
+            }
+        }
+        idColumns.computeIfAbsent(key.tableName, t -> ConcurrentHashMap.newKeySet()).add(key.idColumn);
+        long expires = ttlMillis > 0 ? System.currentTimeMillis() + ttlMillis : Long.MAX_VALUE;
+        CachedRow cached = new CachedRow(Collections.unmodifiableMap(new LinkedHashMap<>(row)), expires);
+        AtomicLong counter = writes(key.tableName);
+        rows.compute(key, (k, old) -> counter.get() == writes ? cached : old);
+        if (counter.get() != writes) {
+            rows.remove(key, cached); // a write landed while storing, it may have missed this entry
+        }
+    }
+
+    private AtomicLong writes(String table) {
+        return tableWrites.computeIfAbsent(table, t -> new AtomicLong());
+    }
+
+    private static Map<String, Object> await(CompletableFuture<Map<String, Object>> future) throws SQLException {
+        try {
+            Map<String, Object> row = future.get();
+            return row == null ? null : new LinkedHashMap<>(row);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted waiting for a row", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof SQLException) {
+                throw (SQLException) e.getCause();
+            }
+            throw new SQLException(e.getCause());
+        }
+    }
+
+    private static final class CachedRow {
+
+        private final Map<String, Object> row;
+        private final long expires;
+
+        CachedRow(Map<String, Object> row, long expires) {
+            this.row = row;
+            this.expires = expires;
+        }
+
+        boolean isExpired(long now) {
+            return now > expires;
+        }
+    }
+
+    private static final class Key {
+
+        private final String tableName;
+        private final String idColumn;
+        private final Object id;
+
+        Key(String tableName, String idColumn, Object id) {
+            this.tableName = QueryCache.normalise(tableName);
+            this.idColumn = idColumn;
+            boolean integral = id instanceof Long || id instanceof Integer || id instanceof Short || id instanceof Byte;
+            this.id = integral ? ((Number) id).longValue() : id; // 1 and 1L are the same row
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return tableName.equals(key.tableName) && idColumn.equals(key.idColumn) && Objects.equals(id, key.id);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(tableName, idColumn, id);
+        }
+    }
+
+}
@@ -0,0 +1,114 @@
+package library;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Forward-only view of a query result that reads one row at a time.
+ * Must be closed (or fully consumed) before the connection is used again.
+ */
+public class RowCursor implements Iterator<Map<String, Object>>, AutoCloseable {
+
+    private final DataConnection owner;
+    private final PreparedStatement stmnt;
+    private final ResultSet rs;
+    private final RowSchema schema;
+    private final String sql;
+    private final long start = System.nanoTime();
+    private long rows;
+    private Boolean hasNext; // null until the next row is fetched
+    private boolean closed;
+    private final boolean streaming;
+
+    RowCursor(DataConnection owner, PreparedStatement stmnt, String sql, int fetchSize) throws SQLException {
+        this.owner = owner;
+        this.sql = sql;
+        this.stmnt = stmnt;
+        this.streaming = fetchSize == DataConnection.FETCH_ROW_BY_ROW;
+        this.rs = stmnt.executeQuery();
+        this.schema = RowSchema.of(rs.getMetaData());
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (closed) {
+            return false;
+        }
+        if (hasNext == null) {
+            try {
+                hasNext = rs.next();
+            } catch (SQLException e) {
+                throw fail(e);
+            }
+            if (!hasNext) {
+                close(); // release the statement as soon as the result is exhausted
+            }
+        }
+        return hasNext;
+    }
+
+    @Override
+    public Map<String, Object> next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        hasNext = null;
+        try {
+            rows++;
+            return schema.read(rs);
+        } catch (SQLException e) {
+            throw fail(e);
+        }
+    }
+
+    public Stream<Map<String, Object>> stream() {
+        Spliterator<Map<String, Object>> spliterator = Spliterators.spliteratorUnknownSize(this,
+                Spliterator.ORDERED | Spliterator.NONNULL);
+        return StreamSupport.stream(spliterator, false).onClose(this::close);
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        owner.record(sql, start, rows); // time to drain, including the caller's processing
+        if (streaming && hasNext != Boolean.FALSE) {
+            // closing a streamed result part way reads every remaining row first, so stop the query
+            // instead; the connection is left mid-result, so it isn't requeued either
+            owner.discard();
+            try {
+                stmnt.cancel();
+            } catch (SQLException e) {
+                // closing still works, it just drains
+            }
+        }
+        try {
+            rs.close();
+            stmnt.close();
+        } catch (SQLException e) {
+            owner.discard();
+            throw new UncheckedSQLException(e);
+        }
+    }
+
+    private UncheckedSQLException fail(SQLException e) {
+        owner.discard();
+        try {
+            close();
+        } catch (UncheckedSQLException ignored) {
+            // report the original failure
+        }
+        throw new UncheckedSQLException(e);
+    }
+
+}
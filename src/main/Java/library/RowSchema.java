@@ -0,0 +1,66 @@
+package library;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Column layout of a result set, resolved once and shared by all of its rows.
+ */
+public class RowSchema {
+
+    private final String[] names;         // unique column names in result order
+    private final int[] slots;            // result column (0 based) -> value slot
+    private final Map<String, Integer> index;
+
+    private RowSchema(String[] names, int[] slots, Map<String, Integer> index) {
+        this.names = names;
+        this.slots = slots;
+        this.index = index;
+    }
+
+    public static RowSchema of(ResultSetMetaData meta) throws SQLException {
+        int count = meta.getColumnCount();
+        Map<String, Integer> index = new HashMap<>(count * 2);
+        String[] unique = new String[count];
+        int[] slots = new int[count];
+        int size = 0;
+        for (int i = 0; i < count; i++) {
+            String name = meta.getColumnName(i + 1);
+            Integer slot = index.get(name);
+            if (slot == null) { // a repeated name (e.g. from a join) keeps its first position
+                slot = size++;
+                index.put(name, slot);
+                unique[slot] = name;
+            }
+            slots[i] = slot;
+        }
+        String[] names = new String[size];
+        System.arraycopy(unique, 0, names, 0, size);
+        return new RowSchema(names, slots, index);
+    }
+
+    public Row read(ResultSet rs) throws SQLException {
+        Object[] values = new Object[names.length];
+        for (int i = 0; i < slots.length; i++) {
+            values[slots[i]] = rs.getObject(i + 1); // later duplicates win, as with Map.put
+        }
+        return new Row(this, values);
+    }
+
+    public int size() {
+        return names.length;
+    }
+
+    public String name(int slot) {
+        return names[slot];
+    }
+
+    public int indexOf(Object name) {
+        Integer slot = index.get(name);
+        return slot == null ? -1 : slot;
+    }
+
+}
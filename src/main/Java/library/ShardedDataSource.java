@@ -0,0 +1,208 @@
+package library;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Several DataSources, one per shard, with connections routed by shard key.
+ * <p>
+ * datasource.shards lists one dsn per shard, every other property is shared. With
+ * datasource.sharding=hash (default) a key goes to shard floorMod(hash, shards); with
+ * datasource.sharding=range, datasource.shardRanges lists the exclusive upper bound of
+ * each shard but the last, e.g. "1000000,2000000" for three shards.
+ */
+public class ShardedDataSource implements AutoCloseable {
+
+    private List<DataSource> shards = new ArrayList<>();
+    private long[] upperBounds; // null for hash routing
+    private ExecutorService executor;
+
+    public ShardedDataSource(Properties properties) throws SQLException {
+        String shardDsns = properties.getProperty("datasource.shards", "").trim();
+        if (shardDsns.isEmpty()) {
+            throw new SQLException("datasource.shards lists no shards");
+        }
+        String[] dsns = shardDsns.split(",");
+
+        String sharding = properties.getProperty("datasource.sharding", "hash").trim();
+        if (sharding.equalsIgnoreCase("range")) {
+            String[] ranges = properties.getProperty("datasource.shardRanges", "").split(",");
+            if (ranges.length != dsns.length - 1) {
+                throw new SQLException(String.format("datasource.shardRanges needs %d bounds for %d shards",
+                        dsns.length - 1, dsns.length));
+            }
+            upperBounds = new long[ranges.length];
+            for (int i = 0; i < ranges.length; i++) {
+                upperBounds[i] = Long.parseLong(ranges[i].trim());
+                if (i > 0 && upperBounds[i] <= upperBounds[i - 1]) {
+                    throw new SQLException("datasource.shardRanges must be ascending");
+                }
+            }
+        } else if (!sharding.equalsIgnoreCase("hash")) {
+            throw new SQLException("Unknown datasource.sharding: " + sharding);
+        }
+
+        try {
+            for (String dsn : dsns) {
+                Properties shard = new Properties();
+                shard.putAll(properties);
+                shard.remove("datasource.shards");
+                shard.setProperty("datasource.dsn", dsn.trim());
+                shards.add(new DataSource(shard));
+            }
+        } catch (SQLException e) {
+            close();
+            throw e;
+        }
+
+        // not a fixed pool: concurrent or nested scatters would queue behind each other, or deadlock;
+        // each shard's own pool still bounds how many queries run against it
+        AtomicInteger count = new AtomicInteger();
+        executor = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "ShardedDataSource-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    //---------------------------------------------------
+
+    public int shardFor(Object key) {
+        if (key == null) {
+            throw new IllegalArgumentException("Shard key is null");
+        }
+        if (upperBounds != null) {
+            if (!(key instanceof Number)) {
+                throw new IllegalArgumentException("Range sharding needs a numeric key, got " + key.getClass().getName());
+            }
+            int found = Arrays.binarySearch(upperBounds, ((Number) key).longValue());
+            return found >= 0 ? found + 1 : -found - 1; // bounds are exclusive
+        }
+        long hash;
+        if (key instanceof Long || key instanceof Integer || key instanceof Short || key instanceof Byte) {
+            hash = ((Number) key).longValue(); // sequential ids spread evenly, and 1 and 1L agree
+        } else {
+            hash = key.hashCode(); // String.hashCode is stable across JVMs
+        }
+        return (int) Math.floorMod(hash, (long) shards.size());
+    }
+
+    public DataSource getShard(Object key) {
+        return shards.get(shardFor(key));
+    }
+
+    public DataConnection getConnection(Object key) throws SQLException {
+        return getShard(key).getConnection();
+    }
+
+    public List<DataSource> getShards() {
+        return shards;
+    }
+
+    public int size() {
+        return shards.size();
+    }
+
+    //---------------------------------------------------
+
+    /**
+     * Runs the query on every shard in parallel; results come back in shard order.
+     * Safe to call concurrently, and from within another scatter's query.
+     */
+    public <R> List<R> scatter(SqlFunction<DataConnection, R> query) throws SQLException {
+        List<Future<R>> futures = new ArrayList<>(shards.size());
+        for (DataSource shard : shards) {
+            futures.add(executor.submit(() -> {
+                try (DataConnection conn = shard.getConnection()) {
+                    return query.apply(conn);
+                }
+            }));
+        }
+        List<R> results = new ArrayList<>(shards.size());
+        SQLException failure = null;
+        for (Future<R> future : futures) {
+            try {
+                results.add(future.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                for (Future<R> f : futures) {
+                    f.cancel(true);
+                }
+                throw new SQLException("Interrupted waiting for shards", e);
+            } catch (ExecutionException e) {
+                SQLException cause = e.getCause() instanceof SQLException
+                        ? (SQLException) e.getCause() : new SQLException(e.getCause());
+                if (failure == null) {
+                    failure = cause;
+                } else {
+                    failure.addSuppressed(cause);
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return results;
+    }
+
+    public List<Map<String, Object>> scatterSelect(String sql, List<Object> vals) throws SQLException {
+        List<Map<String, Object>> rows = new ArrayList<>();
+        for (List<Map<String, Object>> shardRows : scatter(conn -> conn.nativeSelect(sql, vals))) {
+            rows.addAll(shardRows);
+        }
+        return rows;
+    }
+
+    public <T> List<T> scatterSelect(String sql, List<Object> vals, Class<T> clazz) throws SQLException {
+        List<T> rows = new ArrayList<>();
+        for (List<T> shardRows : scatter(conn -> conn.nativeSelect(sql, vals, clazz))) {
+            rows.addAll(shardRows);
+        }
+        return rows;
+    }
+
+    /**
+     * Streams every shard's rows to the consumer as they arrive without holding them in memory.
+     * Rows from different shards interleave; the consumer is called by one thread at a time.
+     * Returns the number of rows.
+     */
+    public long scatterStream(String sql, List<Object> vals, Consumer<Map<String, Object>> consumer) throws SQLException {
+        long total = 0;
+        for (Long count : scatter(conn -> {
+            long rows = 0;
+            try (RowCursor cursor = conn.nativeStream(sql, vals)) {
+                while (cursor.hasNext()) {
+                    Map<String, Object> row = cursor.next();
+                    synchronized (consumer) {
+                        consumer.accept(row);
+                    }
+                    rows++;
+                }
+            } catch (UncheckedSQLException e) {
+                throw e.getCause();
+            }
+            return rows;
+        })) {
+            total += count;
+        }
+        return total;
+    }
+
+    @Override
+    public void close() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        for (DataSource shard : shards) {
+            shard.close();
+        }
+    }
+
+}
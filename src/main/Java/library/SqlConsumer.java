@@ -0,0 +1,10 @@
+package library;
+
+import java.sql.SQLException;
+
+@FunctionalInterface
+public interface SqlConsumer<T> {
+
+    void accept(T t) throws SQLException;
+
+}
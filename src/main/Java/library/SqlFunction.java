@@ -0,0 +1,10 @@
+package library;
+
+import java.sql.SQLException;
+
+@FunctionalInterface
+public interface SqlFunction<T, R> {
+
+    R apply(T t) throws SQLException;
+
+}
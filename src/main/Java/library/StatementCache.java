@@ -0,0 +1,104 @@
+package library;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * LRU cache of prepared statements for a single physical connection.
+ * Statements are checked out with take() and handed back with put(), so a
+ * statement is never shared by two callers at once.
+ */
+public class StatementCache {
+
+    private final int maxSize;
+    private final LinkedHashMap<Key, PreparedStatement> statements;
+    private volatile long hits;
+    private volatile long misses;
+
+    StatementCache(int maxSize) {
+        this.maxSize = maxSize;
+        this.statements = new LinkedHashMap<>(16, 0.75f, true); // access order
+    }
+
+    synchronized PreparedStatement take(String sql, int autoGeneratedKeys) {
+        PreparedStatement stmnt = statements.remove(new Key(sql, autoGeneratedKeys));
+        if (stmnt != null) {
+            hits++;
+        } else {
+            misses++;
+        }
+        return stmnt;
+    }
+
+    synchronized void put(String sql, int autoGeneratedKeys, PreparedStatement stmnt) {
+        if (maxSize <= 0) {
+            closeQuietly(stmnt);
+            return;
+        }
+        PreparedStatement previous = statements.put(new Key(sql, autoGeneratedKeys), stmnt);
+        if (previous != null && previous != stmnt) {
+            closeQuietly(previous); // same sql was prepared twice while checked out
+        }
+        Iterator<PreparedStatement> it = statements.values().iterator();
+        while (statements.size() > maxSize && it.hasNext()) {
+            closeQuietly(it.next());
+            it.remove();
+        }
+    }
+
+    synchronized void clear() {
+        for (PreparedStatement stmnt : statements.values()) {
+            closeQuietly(stmnt);
+        }
+        statements.clear();
+    }
+
+    public synchronized int size() {
+        return statements.size();
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    private static void closeQuietly(PreparedStatement stmnt) {
+        try {
+            stmnt.close();
+        } catch (SQLException e) {
+            // connection is probably gone
+        }
+    }
+
+    private static final class Key {
+
+        private final String sql;
+        private final int autoGeneratedKeys;
+
+        Key(String sql, int autoGeneratedKeys) {
+            this.sql = sql;
+            this.autoGeneratedKeys = autoGeneratedKeys;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return autoGeneratedKeys == key.autoGeneratedKeys && sql.equals(key.sql);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(sql, autoGeneratedKeys);
+        }
+    }
+
+}
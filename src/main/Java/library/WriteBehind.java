@@ -0,0 +1,261 @@
+package library;
+
+import javafx.util.Pair;
+
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Group commit for single row writes. Writes from any number of threads are queued,
+ * and a flusher thread commits up to maxRows of them, or whatever arrived within maxDelay
+ * of the first, as one transaction. Consecutive inserts into the same columns become a
+ * single multi-row INSERT. Each caller's future completes once its write is committed.
+ * <p>
+ * If a group fails, it is rolled back and its writes are retried one at a time, so one
+ * bad row fails only its own future. If the commit itself fails, whether the writes went
+ * in is unknown, so the group's futures fail instead of risking applying them twice.
+ */
+public class WriteBehind implements AutoCloseable {
+
+    private static final Logger LOG = Logger.getLogger(WriteBehind.class.getName());
+
+    private enum Op { INSERT, UPDATE, DELETE }
+
+    private final DataSource dataSource;
+    private final int maxRows;
+    private final long maxDelayNanos;
+    private final BlockingQueue<Write> queue;
+    private final Thread flusher;
+    private volatile boolean closed;
+
+    private final LongAdder writes = new LongAdder();
+    private final LongAdder commits = new LongAdder();
+    private final LongAdder retried = new LongAdder();
+
+    public WriteBehind(DataSource dataSource, int maxRows, long maxDelayMillis, int queueSize) {
+        this.dataSource = dataSource;
+        this.maxRows = maxRows;
+        this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+        this.queue = new LinkedBlockingQueue<>(queueSize);
+        this.flusher = new Thread(this::flushLoop, "WriteBehind-flusher");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    //---------------------------------------------------
+
+    /**
+     * Completes with the generated key, or -1 if the table has none.
+     */
+    public CompletableFuture<Long> insertRow(String tableName, Map<String, Object> vals) {
+        return submit(new Write(Op.INSERT, tableName, null, new LinkedHashMap<>(vals)));
+    }
+
+    public CompletableFuture<Boolean> updateRow(String tableName, Pair<String, Object> id, Map<String, Object> vals) {
+        return submit(new Write(Op.UPDATE, tableName, id, new LinkedHashMap<>(vals)));
+    }
+
+    public CompletableFuture<Boolean> deleteRow(String tableName, Pair<String, Object> id) {
+        return submit(new Write(Op.DELETE, tableName, id, null));
+    }
+
+    @SuppressWarnings("unchecked")
+    private <R> CompletableFuture<R> submit(Write write) {
+        if (closed) {
+            write.future.completeExceptionally(new SQLException("WriteBehind is closed"));
+        } else {
+            try {
+                queue.put(write); // a full queue holds callers back
+                if (closed && queue.remove(write)) { // close() may have drained the queue already
+                    write.future.completeExceptionally(new SQLException("WriteBehind is closed"));
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                write.future.completeExceptionally(new SQLException("Interrupted queueing a write", e));
+            }
+        }
+        return (CompletableFuture<R>) write.future;
+    }
+
+    //---------------------------------------------------
+
+    public long getWrites() {
+        return writes.sum();
+    }
+
+    public long getCommits() {
+        return commits.sum();
+    }
+
+    public long getRetried() {
+        return retried.sum();
+    }
+
+    public int getQueued() {
+        return queue.size();
+    }
+
+    //---------------------------------------------------
+
+    private void flushLoop() {
+        List<Write> group = new ArrayList<>(maxRows);
+        while (!closed || !queue.isEmpty()) {
+            try {
+                Write first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                group.add(first);
+                long deadline = System.nanoTime() + maxDelayNanos;
+                while (group.size() < maxRows) {
+                    long remaining = deadline - System.nanoTime();
+                    Write next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    group.add(next);
+                }
+            } catch (InterruptedException e) {
+                // nothing interrupts the flusher, close() lets it drain the queue instead
+            }
+            if (!group.isEmpty()) {
+                flush(group);
+                group.clear();
+            }
+        }
+    }
+
+    private void flush(List<Write> group) {
+        boolean applied = false;
+        boolean committed = false;
+        try (DataConnection conn = dataSource.getConnection()) {
+            conn.setAutoCommit(false);
+            List<Object> results = new ArrayList<>(group.size());
+            try {
+                int i = 0;
+                while (i < group.size()) {
+                    Write write = group.get(i);
+                    if (write.op != Op.INSERT) {
+                        results.add(apply(conn, write));
+                        i++;
+                        continue;
+                    }
+                    // consecutive inserts with the same columns share one statement
+                    int to = i + 1;
+                    while (to < group.size() && group.get(to).op == Op.INSERT
+                            && group.get(to).tableName.equals(write.tableName)
+                            && group.get(to).vals.keySet().equals(write.vals.keySet())) {
+                        to++;
+                    }
+                    List<Map<String, Object>> rows = new ArrayList<>(to - i);
+                    for (int j = i; j < to; j++) {
+                        rows.add(group.get(j).vals);
+                    }
+                    for (Long key : conn.insertRows(write.tableName, rows)) {
+                        results.add(key == null ? -1L : key);
+                    }
+                    i = to;
+                }
+            } catch (SQLException | RuntimeException e) {
+                try {
+                    conn.rollback();
+                } catch (SQLException rollback) {
+                    conn.setRequeue(false);
+                }
+                throw e;
+            }
+            applied = true;
+            try {
+                conn.commit();
+            } catch (SQLException | RuntimeException e) {
+                conn.setRequeue(false);
+                throw e;
+            }
+            committed = true;
+            commits.increment();
+            writes.add(group.size());
+            for (int i = 0; i < group.size(); i++) {
+                group.get(i).future.complete(results.get(i));
+            }
+        } catch (SQLException | RuntimeException e) {
+            if (committed) {
+                return; // only returning the connection failed, the writes are in
+            }
+            if (applied) {
+                LOG.log(Level.WARNING, "Commit of " + group.size() + " writes failed, they may or may not be in", e);
+                for (Write write : group) {
+                    write.future.completeExceptionally(e);
+                }
+                return;
+            }
+            LOG.log(Level.FINE, "Group of " + group.size() + " writes failed, retrying one at a time", e);
+            retryEach(group);
+        }
+    }
+
+    private void retryEach(List<Write> group) {
+        for (Write write : group) {
+            retried.increment();
+            try (DataConnection conn = dataSource.getConnection()) {
+                Object result = apply(conn, write);
+                writes.increment();
+                commits.increment();
+                write.future.complete(result);
+            } catch (SQLException | RuntimeException e) {
+                write.future.completeExceptionally(e);
+            }
+        }
+    }
+
+    private static Object apply(DataConnection conn, Write write) throws SQLException {
+        switch (write.op) {
+            case INSERT:
+                return conn.insertRow(write.tableName, write.vals);
+            case UPDATE:
+                return conn.updateRow(write.tableName, write.id, write.vals);
+            default:
+                return conn.deleteRow(write.tableName, write.id);
+        }
+    }
+
+    /**
+     * Stops accepting writes and waits for everything queued to be committed.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        Write write;
+        while ((write = queue.poll()) != null) { // queued while the flusher was exiting
+            write.future.completeExceptionally(new SQLException("WriteBehind is closed"));
+        }
+    }
+
+    private static final class Write {
+
+        private final Op op;
+        private final String tableName;
+        private final Pair<String, Object> id;
+        private final Map<String, Object> vals;
+        private final CompletableFuture<Object> future = new CompletableFuture<>();
+
+        Write(Op op, String tableName, Pair<String, Object> id, Map<String, Object> vals) {
+            this.op = op;
+            this.tableName = tableName;
+            this.id = id;
+            this.vals = vals;
+        }
+    }
+
+}
@@ -1,3 +1,4 @@
+import entity.Product;
 import javafx.util.Pair;
 import org.junit.jupiter.api.*;
 
@@ -5,10 +6,16 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -329,4 +336,471 @@ class DataSourceTest {
             connection.setAutoCommit(true);
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    void testStatementCache() throws SQLException {
+        try (DataConnection connection = ds.getConnection()) {
+            long hits = connection.getStatementCache().getHits();
+            connection.selectRow("products", new Pair<>("id", 1));
+            connection.selectRow("products", new Pair<>("id", 2));
+            assertEquals(hits + 1, connection.getStatementCache().getHits());
+        }
+    }
+
+    @Test
+    void testStream() throws SQLException {
+        try (DataConnection connection = ds.getConnection()) {
+            Map<String, Object> vals = new HashMap<>();
+            vals.put("name", UUID.randomUUID().toString());
+            Long id = connection.insertRow("products", vals);
+
+            try (RowCursor cursor = connection.nativeStream("SELECT * FROM products WHERE id = ?",
+                    Collections.singletonList(id))) {
+                assertTrue(cursor.hasNext());
+                assertEquals(vals.get("name"), cursor.next().get("name"));
+                assertFalse(cursor.hasNext());
+            }
+
+            connection.deleteRow("products", new Pair<>("id", id));
+        }
+    }
+
+    @Test
+    void testEntitySelect() throws SQLException {
+        try (DataConnection connection = ds.getConnection()) {
+            Map<String, Object> vals = new HashMap<>();
+            vals.put("name", UUID.randomUUID().toString());
+            Long id = connection.insertRow("products", vals);
+
+            List<Product> products = connection.nativeSelect("SELECT * FROM products WHERE id = ?",
+                    Collections.singletonList(id), Product.class);
+            assertEquals(1, products.size());
+            assertEquals(id, products.get(0).getId());
+            assertEquals(vals.get("name"), products.get(0).getName());
+
+            connection.deleteRow("products", new Pair<>("id", id));
+        }
+    }
+
+    @Test
+    void testInsertRows() throws SQLException {
+        try (DataConnection connection = ds.getConnection()) {
+            List<Map<String, Object>> rows = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                Map<String, Object> vals = new HashMap<>();
+                vals.put("name", UUID.randomUUID().toString());
+                rows.add(vals);
+            }
+
+            List<Long> ids = connection.insertRows("products", rows);
+            assertEquals(3, ids.size());
+
+            for (int i = 0; i < ids.size(); i++) {
+                Map<String, Object> row = connection.selectRow("products", new Pair<>("id", ids.get(i)));
+                assertEquals(rows.get(i).get("name"), row.get("name"));
+                connection.deleteRow("products", new Pair<>("id", ids.get(i)));
+            }
+        }
+    }
+
+    @Test
+    void testRepository() throws SQLException {
+        EntityRepository<Product> repository = new EntityRepository<>(ds, Product.class);
+
+        Product product = new Product();
+        product.setName(UUID.randomUUID().toString());
+        repository.save(product);
+        assertNotNull(product.getId());
+
+        product.setName(UUID.randomUUID().toString());
+        assertTrue(repository.update(product));
+        assertEquals(product.getName(), repository.findById(product.getId()).getName());
+
+        assertTrue(repository.delete(product));
+        assertNull(repository.findById(product.getId()));
+    }
+
+    @Test
+    void testParallelWarmUp() throws SQLException {
+        Properties warm = new Properties();
+        warm.putAll(properties);
+        warm.setProperty("datasource.initPoolSize", "4");
+        warm.setProperty("datasource.maxPoolSize", "4");
+        ConnectionPool pool = new ConnectionPool(warm);
+        try {
+            assertEquals(4, pool.totalSize());
+            assertEquals(4, pool.poolSize());
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test
+    void testColumnarSelect() throws SQLException {
+        try (DataConnection connection = ds.getConnection()) {
+            Map<String, Object> vals = new HashMap<>();
+            vals.put("name", UUID.randomUUID().toString());
+            Long id = connection.insertRow("products", vals);
+
+            ColumnarResult result = connection.columnarSelect("SELECT id, name FROM products WHERE id = ?",
+                    Collections.singletonList(id));
+            assertEquals(1, result.size());
+            assertEquals(id.longValue(), ((Number) result.get(0, "id")).longValue());
+            assertEquals(vals.get("name"), result.strings("name").getString(0));
+
+            connection.deleteRow("products", new Pair<>("id", id));
+        }
+    }
+
+    @Test
+    void testRangeScan() throws SQLException {
+        String name = UUID.randomUUID().toString();
+        List<Long> ids = new ArrayList<>();
+        try (DataConnection connection = ds.getConnection()) {
+            for (int i = 0; i < 5; i++) {
+                Map<String, Object> vals = new HashMap<>();
+                vals.put("name", name);
+                ids.add(connection.insertRow("products", vals));
+            }
+        }
+
+        RangeScan scan = new RangeScan(ds, "products", "id");
+        scan.setWhere("name = ?", Collections.singletonList(name));
+        scan.setPageSize(2);
+        scan.setParallelism(2);
+        List<Long> seen = Collections.synchronizedList(new ArrayList<>());
+        assertEquals(5, scan.forEach(row -> seen.add(((Number) row.get("id")).longValue())));
+        Collections.sort(seen);
+        assertEquals(ids, seen);
+
+        scan.setSampledBoundaries(true);
+        scan.setSplits(3);
+        seen.clear();
+        assertEquals(5, scan.forEach(row -> seen.add(((Number) row.get("id")).longValue())));
+        Collections.sort(seen);
+        assertEquals(ids, seen);
+
+        scan.setSplits(20); // more ranges than rows
+        seen.clear();
+        assertEquals(5, scan.forEach(row -> seen.add(((Number) row.get("id")).longValue())));
+        Collections.sort(seen);
+        assertEquals(ids, seen);
+
+        try (DataConnection connection = ds.getConnection()) {
+            for (Long id : ids) {
+                connection.deleteRow("products", new Pair<>("id", id));
+            }
+        }
+    }
+
+    @Test
+    void testWriteBehind() throws Exception {
+        Properties grouped = new Properties();
+        grouped.putAll(properties);
+        grouped.setProperty("datasource.writeBehind.maxRows", "50");
+        DataSource writeDs = new DataSource(grouped);
+        try {
+            List<CompletableFuture<Long>> futures = new ArrayList<>();
+            List<String> names = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                Map<String, Object> vals = new HashMap<>();
+                vals.put("name", UUID.randomUUID().toString());
+                names.add((String) vals.get("name"));
+                futures.add(writeDs.getWriteBehind().insertRow("products", vals));
+            }
+
+            try (DataConnection connection = writeDs.getConnection()) {
+                for (int i = 0; i < futures.size(); i++) {
+                    Long id = futures.get(i).get(5, TimeUnit.SECONDS);
+                    assertEquals(names.get(i), connection.selectRow("products", new Pair<>("id", id)).get("name"));
+                    connection.deleteRow("products", new Pair<>("id", id));
+                }
+            }
+        } finally {
+            writeDs.close();
+        }
+    }
+
+    @Test
+    void testInsertRowsFailureRestoresAutoCommit() throws SQLException {
+        try (DataConnection connection = ds.getConnection()) {
+            Map<String, Object> bad = new HashMap<>();
+            bad.put("no_such_column", "x");
+            assertThrows(SQLException.class, () -> connection.insertRows("products", Collections.singletonList(bad)));
+            assertThrows(SQLException.class, () -> connection.upsertRows("products", Collections.singletonList(bad)));
+            assertTrue(connection.getConnection().getAutoCommit());
+        }
+    }
+
+    @Test
+    void testQueryCacheCommaJoin() {
+        QueryCache cache = new QueryCache(10, 60000);
+        String sql = "SELECT * FROM products p, orders o WHERE p.id = o.product_id";
+        cache.put(sql, null, "cached", cache.snapshot(sql));
+        assertEquals("cached", cache.get(sql, null));
+        cache.invalidate("UPDATE orders SET quantity = 2");
+        assertNull(cache.get(sql, null));
+    }
+
+    @Test
+    void testInsertRowsInvalidatesQueryCache() throws SQLException {
+        Properties cached = new Properties();
+        cached.putAll(properties);
+        cached.setProperty("datasource.queryCache.size", "100");
+        DataSource cachedDs = new DataSource(cached);
+        try (DataConnection connection = cachedDs.getConnection()) {
+            String name = UUID.randomUUID().toString();
+            String sql = "SELECT COUNT(*) FROM products WHERE name = ?";
+            assertEquals(0L, ((Number) connection.cachedScalar(sql, Collections.singletonList(name))).longValue());
+
+            Map<String, Object> vals = new HashMap<>();
+            vals.put("name", name);
+            List<Long> ids = connection.insertRows("products", Collections.singletonList(vals));
+            assertEquals(1L, ((Number) connection.cachedScalar(sql, Collections.singletonList(name))).longValue());
+            connection.deleteRow("products", new Pair<>("id", ids.get(0)));
+        } finally {
+            cachedDs.close();
+        }
+    }
+
+    @Test
+    void testClosedPool() throws SQLException {
+        DataSource closing = new DataSource(properties);
+        DataConnection borrowed = closing.getConnection();
+        borrowed.isValid();
+        closing.close();
+        assertThrows(SQLException.class, closing::getConnection);
+        borrowed.close(); // returned after close, so it is closed rather than requeued
+        assertEquals(0, closing.getPool().poolSize());
+    }
+
+    @Test
+    void testRowCacheOtherKeyColumn() throws SQLException {
+        Properties cached = new Properties();
+        cached.putAll(properties);
+        cached.setProperty("datasource.rowCache.size", "100");
+        DataSource cachedDs = new DataSource(cached);
+        try (DataConnection connection = cachedDs.getConnection()) {
+            String name = UUID.randomUUID().toString();
+            Map<String, Object> vals = new HashMap<>();
+            vals.put("name", name);
+            long id = connection.insertRow("products", vals);
+
+            assertNotNull(connection.selectRow("products", new Pair<>("name", name))); // cached by name
+            assertEquals(name, connection.selectRow("products", new Pair<>("id", id)).get("name")); // and by id
+
+            vals.put("name", UUID.randomUUID().toString());
+            connection.updateRow("products", new Pair<>("id", id), vals);
+            assertEquals(vals.get("name"), connection.selectRow("products", new Pair<>("id", id)).get("name"));
+            assertNull(connection.selectRow("products", new Pair<>("name", name)));
+
+            connection.deleteRow("products", new Pair<>("id", id));
+            assertNull(connection.selectRow("products", new Pair<>("name", vals.get("name"))));
+        } finally {
+            cachedDs.close();
+        }
+    }
+
+    @Test
+    void testRowCacheExpiry() throws Exception {
+        RowCache cache = new RowCache(10, 50);
+        Map<String, Object> row = new HashMap<>();
+        row.put("id", 1L);
+        int[] loads = new int[1];
+        SqlFunction<Object, Map<String, Object>> loader = id -> {
+            loads[0]++;
+            return row;
+        };
+        cache.get("products", "id", 1L, loader);
+        cache.get("products", "id", 1L, loader);
+        assertEquals(1, loads[0]);
+        Thread.sleep(100);
+        cache.get("products", "id", 1L, loader);
+        assertEquals(2, loads[0]);
+    }
+
+    @Test
+    void testUpsertRows() throws SQLException {
+        try (DataConnection connection = ds.getConnection()) {
+            Map<String, Object> existing = new HashMap<>();
+            existing.put("name", UUID.randomUUID().toString());
+            long id = connection.insertRow("products", existing);
+
+            Map<String, Object> updated = new HashMap<>();
+            updated.put("id", id);
+            updated.put("name", UUID.randomUUID().toString());
+            Map<String, Object> added = new HashMap<>();
+            added.put("name", UUID.randomUUID().toString());
+            List<Map<String, Object>> rows = new ArrayList<>();
+            rows.add(updated);
+            rows.add(added);
+            assertEquals(2 + 1, connection.upsertRows("products", rows)); // one updated, one inserted
+
+            assertEquals(updated.get("name"), connection.selectRow("products", new Pair<>("id", id)).get("name"));
+            Map<String, Object> row = connection.selectRow("products", new Pair<>("name", added.get("name")));
+            assertNotNull(row);
+
+            connection.deleteRow("products", new Pair<>("id", id));
+            connection.deleteRow("products", new Pair<>("id", row.get("id")));
+        }
+    }
+
+    @Test
+    void testConcurrentBorrowReturn() throws Exception {
+        Properties small = new Properties();
+        small.putAll(properties);
+        small.setProperty("datasource.maxPoolSize", "2");
+        DataSource smallDs = new DataSource(small);
+        try {
+            List<CompletableFuture<Void>> borrowers = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                borrowers.add(CompletableFuture.runAsync(() -> {
+                    for (int j = 0; j < 50; j++) {
+                        try (DataConnection connection = smallDs.getConnection()) {
+                            assertTrue(connection.isValid());
+                        } catch (SQLException e) {
+                            throw new UncheckedSQLException(e);
+                        }
+                    }
+                }));
+            }
+            CompletableFuture.allOf(borrowers.toArray(new CompletableFuture[0])).get(30, TimeUnit.SECONDS);
+            assertTrue(smallDs.getPool().getTotalConnections() <= 2);
+        } finally {
+            smallDs.close();
+        }
+    }
+
+    @Test
+    void testQueryCacheSkipsTransactions() throws SQLException {
+        Properties cached = new Properties();
+        cached.putAll(properties);
+        cached.setProperty("datasource.queryCache.size", "100");
+        DataSource cachedDs = new DataSource(cached);
+        String name = UUID.randomUUID().toString();
+        String sql = "SELECT COUNT(*) FROM products WHERE name = ?";
+        try (DataConnection connection = cachedDs.getConnection()) {
+            connection.setAutoCommit(false);
+            Map<String, Object> vals = new HashMap<>();
+            vals.put("name", name);
+            connection.insertRow("products", vals);
+            assertEquals(1L, ((Number) connection.cachedScalar(sql, Collections.singletonList(name))).longValue());
+            connection.rollback();
+        }
+        try (DataConnection connection = cachedDs.getConnection()) {
+            assertEquals(0L, ((Number) connection.cachedScalar(sql, Collections.singletonList(name))).longValue());
+        } finally {
+            cachedDs.close();
+        }
+    }
+
+    @Test
+    void testCachedRowsAreReadOnly() throws SQLException {
+        Properties cached = new Properties();
+        cached.putAll(properties);
+        cached.setProperty("datasource.queryCache.size", "100");
+        DataSource cachedDs = new DataSource(cached);
+        try (DataConnection connection = cachedDs.getConnection()) {
+            List<Map<String, Object>> rows = connection.cachedSelect("SELECT COUNT(*) AS n FROM products", null);
+            assertThrows(UnsupportedOperationException.class, () -> rows.get(0).put("n", -1));
+        } finally {
+            cachedDs.close();
+        }
+    }
+
+    @Test
+    void testRowCacheKeyChangeAndRacingWrite() throws SQLException {
+        RowCache cache = new RowCache(10, 0);
+        Map<String, Object> row = new HashMap<>();
+        row.put("id", 1L);
+        cache.get("products", "id", 1L, id -> row);
+        cache.updated("products", "id", 1L, Collections.singletonMap("id", 2L));
+        assertEquals(0, cache.size()); // not served under the old id
+
+        cache.get("products", "id", 3L, id -> {
+            cache.updated("products", "id", 3L, Collections.singletonMap("name", "changed"));
+            return row; // read before the update
+        });
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void testUpsertRowCounts() throws SQLException {
+        try (DataConnection connection = ds.getConnection()) {
+            Map<String, Object> existing = new HashMap<>();
+            existing.put("name", UUID.randomUUID().toString());
+            long id = connection.insertRow("products", existing);
+
+            Map<String, Object> unchanged = new HashMap<>(existing);
+            unchanged.put("id", id);
+            Map<String, Object> added = new HashMap<>();
+            added.put("name", UUID.randomUUID().toString());
+            int[] counts = connection.upsertRowCounts("products", Arrays.asList(added, unchanged), null);
+            assertArrayEquals(new int[]{1, 0}, counts); // input order: inserted, unchanged
+
+            unchanged.put("name", UUID.randomUUID().toString());
+            assertArrayEquals(new int[]{2}, connection.upsertRowCounts("products", Collections.singletonList(unchanged), null));
+
+            connection.deleteRow("products", new Pair<>("id", id));
+            connection.deleteRow("products", new Pair<>("name", added.get("name")));
+        }
+    }
+
+    @Test
+    void testStreamClosedEarly() throws SQLException {
+        String name = UUID.randomUUID().toString();
+        List<Long> ids = new ArrayList<>();
+        try (DataConnection connection = ds.getConnection()) {
+            for (int i = 0; i < 3; i++) {
+                Map<String, Object> vals = new HashMap<>();
+                vals.put("name", name);
+                ids.add(connection.insertRow("products", vals));
+            }
+        }
+
+        long destroyed = ds.getPool().getConnectionsDestroyed();
+        try (DataConnection connection = ds.getConnection();
+             RowCursor cursor = connection.nativeStream("SELECT * FROM products WHERE name = ?",
+                     Collections.singletonList(name), DataConnection.FETCH_ROW_BY_ROW)) {
+            assertEquals(name, cursor.next().get("name"));
+        }
+        // cancelled rather than drained, so the connection is retired
+        assertEquals(destroyed + 1, ds.getPool().getConnectionsDestroyed());
+
+        try (DataConnection connection = ds.getConnection()) {
+            for (Long id : ids) {
+                connection.deleteRow("products", new Pair<>("id", id));
+            }
+        }
+    }
+
+    @Test
+    void testTrackedConnectionReset() throws SQLException {
+        String name = UUID.randomUUID().toString();
+        String catalog;
+        int isolation;
+        try (DataConnection connection = ds.getConnection()) {
+            Connection tracked = connection.getConnection();
+            assertEquals(tracked, tracked);
+            assertEquals(tracked.hashCode(), connection.getConnection().hashCode());
+            catalog = tracked.getCatalog();
+            isolation = tracked.getTransactionIsolation();
+
+            tracked.setAutoCommit(false);
+            tracked.setTransactionIsolation(Connection.TRANSACTION_SERIALIZABLE);
+            tracked.setCatalog("information_schema");
+            Map<String, Object> vals = new HashMap<>();
+            vals.put("name", name);
+            connection.insertRow(catalog + ".products", vals);
+        }
+
+        Connection physical = ds.getPool().getLastConnection(); // the same connection, back in the pool
+        assertNotNull(physical);
+        assertTrue(physical.getAutoCommit());
+        assertEquals(isolation, physical.getTransactionIsolation());
+        assertEquals(catalog, physical.getCatalog());
+        try (DataConnection connection = ds.getConnection()) {
+            assertNull(connection.selectRow("products", new Pair<>("name", name))); // rolled back
+        }
+    }
+}
@@ -0,0 +1,85 @@
+import org.junit.jupiter.api.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.SQLException;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Routing only: with initPoolSize=0 the shards open no connections, so no database is needed.
+ */
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class ShardedDataSourceTest {
+
+    private Properties properties;
+
+    @BeforeAll
+    void init() {
+        properties = new Properties();
+        try (InputStream stream = this.getClass().getClassLoader().getResourceAsStream("application.properties")) {
+            properties.load(stream);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        properties.setProperty("datasource.initPoolSize", "0");
+    }
+
+    private Properties shards(int count) {
+        Properties sharded = new Properties();
+        sharded.putAll(properties);
+        String dsn = properties.getProperty("datasource.dsn");
+        StringBuilder dsns = new StringBuilder(dsn);
+        for (int i = 1; i < count; i++) {
+            dsns.append(',').append(dsn);
+        }
+        sharded.setProperty("datasource.shards", dsns.toString());
+        return sharded;
+    }
+
+    @Test
+    void testRangeRouting() throws SQLException {
+        Properties sharded = shards(3);
+        sharded.setProperty("datasource.sharding", "range");
+        sharded.setProperty("datasource.shardRanges", "100,200");
+        try (ShardedDataSource ds = new ShardedDataSource(sharded)) {
+            assertEquals(0, ds.shardFor(-5)); // below the first bound
+            assertEquals(0, ds.shardFor(99));
+            assertEquals(1, ds.shardFor(100)); // bounds are exclusive
+            assertEquals(1, ds.shardFor(199L));
+            assertEquals(2, ds.shardFor(200));
+            assertEquals(2, ds.shardFor(Long.MAX_VALUE)); // above the last bound
+            assertThrows(IllegalArgumentException.class, () -> ds.shardFor("100"));
+        }
+    }
+
+    @Test
+    void testHashRouting() throws SQLException {
+        try (ShardedDataSource ds = new ShardedDataSource(shards(4))) {
+            assertEquals(ds.shardFor(7), ds.shardFor(7L)); // Integer and Long keys agree
+            assertEquals(3, ds.shardFor(7L));
+            assertEquals(3, ds.shardFor(-1L)); // negative hashes still land on a shard
+            String key = "polygenelubricants"; // hashCode is Integer.MIN_VALUE
+            assertEquals(Integer.MIN_VALUE, key.hashCode());
+            assertEquals(0, ds.shardFor(key));
+            assertThrows(IllegalArgumentException.class, () -> ds.shardFor(null));
+        }
+    }
+
+    @Test
+    void testRangeValidation() {
+        Properties sharded = shards(3);
+        sharded.setProperty("datasource.sharding", "range");
+        sharded.setProperty("datasource.shardRanges", "100");
+        assertThrows(SQLException.class, () -> new ShardedDataSource(sharded)); // one bound short
+
+        sharded.setProperty("datasource.shardRanges", "200,100");
+        assertThrows(SQLException.class, () -> new ShardedDataSource(sharded)); // not ascending
+
+        sharded.setProperty("datasource.sharding", "modulo");
+        assertThrows(SQLException.class, () -> new ShardedDataSource(sharded));
+
+        assertThrows(SQLException.class, () -> new ShardedDataSource(properties)); // no shards
+    }
+}